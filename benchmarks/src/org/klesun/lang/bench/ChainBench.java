@@ -0,0 +1,79 @@
+package org.klesun.lang.bench;
+
+import org.klesun.lang.L;
+import org.klesun.lang.Tls;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.klesun.lang.Lang.*;
+
+/** map -> filter -> flatMap -> map chain, like the one every resolver builds (L.map() gives It as well) */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBench
+{
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private L<Integer> source;
+    private List<Integer> javaSource;
+
+    @Setup
+    public void setup()
+    {
+        source = Tls.range(0, size).arr();
+        javaSource = new ArrayList<>(source);
+    }
+
+    @Benchmark
+    public L<String> it()
+    {
+        return It(source)
+            .map(i -> i * 3)
+            .flt(i -> i % 2 == 0)
+            .fap(i -> list(i, i + 1))
+            .map(i -> "k" + i)
+            .arr();
+    }
+
+    @Benchmark
+    public List<String> stream()
+    {
+        return javaSource.stream()
+            .map(i -> i * 3)
+            .filter(i -> i % 2 == 0)
+            .flatMap(i -> IntStream.of(i, i + 1).boxed())
+            .map(i -> "k" + i)
+            .collect(Collectors.toList());
+    }
+
+    /** resolvers often only check whether there is anything */
+    @Benchmark
+    public boolean itFirst()
+    {
+        return It(source)
+            .map(i -> i * 3)
+            .flt(i -> i % 2 == 1)
+            .fap(i -> list(i, i + 1))
+            .has();
+    }
+
+    @Benchmark
+    public boolean streamFirst()
+    {
+        return javaSource.stream()
+            .map(i -> i * 3)
+            .filter(i -> i % 2 == 1)
+            .flatMap(i -> IntStream.of(i, i + 1).boxed())
+            .findFirst().isPresent();
+    }
+}
@@ -0,0 +1,81 @@
+package org.klesun.lang.bench;
+
+import org.klesun.lang.It;
+import org.klesun.lang.L;
+import org.klesun.lang.Tls;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * cnc() nested to given depth, like It.cnc(a, It.cnc(b, It.cnc(c, ...))) that
+ * happens when each resolver concatenates sources and passes result further
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CncBench
+{
+    @Param({"1", "4", "16", "64"})
+    public int depth;
+
+    @Param({"10"})
+    public int sizePerLevel;
+
+    private L<L<Integer>> levels;
+
+    @Setup
+    public void setup()
+    {
+        levels = Tls.range(0, depth)
+            .map(lvl -> Tls.range(lvl * sizePerLevel, (lvl + 1) * sizePerLevel).arr())
+            .arr();
+    }
+
+    @Benchmark
+    public L<Integer> cnc()
+    {
+        It<Integer> result = It.non();
+        for (L<Integer> level: levels) {
+            result = It.cnc(level, result);
+        }
+        return result.arr();
+    }
+
+    /** cnc() of all levels at once rather than nested */
+    @Benchmark
+    public L<Integer> cncFlat()
+    {
+        Iterable<Integer>[] args = levels.toArray(new Iterable[0]);
+        return It.cnc(args).arr();
+    }
+
+    @Benchmark
+    public List<Integer> stream()
+    {
+        Stream<Integer> result = Stream.empty();
+        for (L<Integer> level: levels) {
+            result = Stream.concat(level.stream(), result);
+        }
+        return result.collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Integer> arrayList()
+    {
+        List<Integer> result = new ArrayList<>();
+        for (int i = levels.size() - 1; i >= 0; --i) {
+            result.addAll(levels.get(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package org.klesun.lang.bench;
+
+import org.klesun.lang.L;
+import org.klesun.lang.MemoizingIterable;
+import org.klesun.lang.Tls;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** results taken from the search cache are iterated many times */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoBench
+{
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private L<Integer> source;
+    private MemoizingIterable<Integer> filled;
+    private List<Integer> arrayList;
+
+    @Setup
+    public void setup()
+    {
+        source = Tls.range(0, size).arr();
+        filled = new MemoizingIterable<>(source.iterator());
+        filled.forEach(i -> {});
+        arrayList = new ArrayList<>(source);
+    }
+
+    @Benchmark
+    public void reiterate(Blackhole bh)
+    {
+        for (Integer i: filled) {
+            bh.consume(i);
+        }
+    }
+
+    @Benchmark
+    public void reiterateArrayList(Blackhole bh)
+    {
+        for (Integer i: arrayList) {
+            bh.consume(i);
+        }
+    }
+
+    /** first pass - each element is pulled from source under producer lease */
+    @Benchmark
+    public void firstPass(Blackhole bh)
+    {
+        MemoizingIterable<Integer> mem = new MemoizingIterable<>(source.iterator());
+        for (Integer i: mem) {
+            bh.consume(i);
+        }
+    }
+
+    /** two consumers going one after another, like two resolvers sharing a cached expression */
+    @Benchmark
+    public void twoConsumersInTurns(Blackhole bh)
+    {
+        MemoizingIterable<Integer> mem = new MemoizingIterable<>(source.iterator());
+        Iterator<Integer> first = mem.iterator();
+        Iterator<Integer> second = mem.iterator();
+        while (first.hasNext()) {
+            bh.consume(first.next());
+            bh.consume(second.next());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.klesun.lang.bench;
+
+import org.klesun.lang.Opt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.klesun.lang.Lang.*;
+
+/** opt(psi).fop(toCast(...)).map(...).def(...) is written on nearly every line of resolvers */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptBench
+{
+    private Object value = "some_key";
+
+    @Benchmark
+    public String opt()
+    {
+        return opt(value)
+            .fop(toCast(String.class))
+            .flt(s -> s.length() > 2)
+            .map(s -> s + "_suffix")
+            .def("");
+    }
+
+    @Benchmark
+    public String optional()
+    {
+        return Optional.ofNullable(value)
+            .filter(String.class::isInstance)
+            .map(String.class::cast)
+            .filter(s -> s.length() > 2)
+            .map(s -> s + "_suffix")
+            .orElse("");
+    }
+
+    @Benchmark
+    public String optFst()
+    {
+        return Opt.fst(
+            () -> non(),
+            () -> opt(value).fop(toCast(String.class))
+        ).def("");
+    }
+}
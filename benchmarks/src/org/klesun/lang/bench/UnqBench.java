@@ -0,0 +1,58 @@
+package org.klesun.lang.bench;
+
+import org.klesun.lang.L;
+import org.klesun.lang.Tls;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.klesun.lang.Lang.*;
+
+/** unq() is applied to every resolved expression before caching */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnqBench
+{
+    @Param({"100", "10000"})
+    public int size;
+
+    /** how many distinct values there are per 100 elements */
+    @Param({"1", "50", "100"})
+    public int distinctPercent;
+
+    private L<Integer> source;
+    private List<Integer> javaSource;
+
+    @Setup
+    public void setup()
+    {
+        int distinct = Math.max(1, size * distinctPercent / 100);
+        source = Tls.range(0, size).map(i -> i % distinct).arr();
+        javaSource = new ArrayList<>(source);
+    }
+
+    @Benchmark
+    public L<Integer> it()
+    {
+        return It(source).unq().arr();
+    }
+
+    @Benchmark
+    public L<Integer> itByHash()
+    {
+        return It(source).unq(i -> i / 2).arr();
+    }
+
+    @Benchmark
+    public List<Integer> stream()
+    {
+        return javaSource.stream().distinct().collect(Collectors.toList());
+    }
+}
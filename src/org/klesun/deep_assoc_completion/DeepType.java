@@ -19,7 +19,18 @@ import java.util.*;
  */
 public class DeepType extends Lang
 {
+    // how many levels of key values are compared by getFingerprint()
+    private static final int FINGERPRINT_DEPTH = 2;
+    // key with more value types than that makes the type unique instead
+    private static final int FINGERPRINT_VALUE_TYPES = 16;
+
+    // don't add to it directly, use addKey() - it also updates the index
     public final L<Key> keys = new L<>();
+    // index for getKeysByName(), so that accessing a key of a config
+    // array with hundreds of keys did not iterate through all of them
+    private final Map<String, L<Key>> nameToKeys = new HashMap<>();
+    // keys which name is not known until resolved - variables, function calls, etc...
+    private final L<Key> dynamicKeys = new L<>();
     // just like array keys, but dynamic object properties
     public final Dict<Key> props = new Dict<>(L());
     // applicable to closures and function names
@@ -29,13 +40,16 @@ public class DeepType extends Lang
     public final L<F<IExprCtx, MemoizingIterable<DeepType>>> returnTypeGetters = L();
     public final L<DeepType> pdoFetchTypes = L();
     public final LinkedHashSet<String> pdoBindVars = new LinkedHashSet<>();
-    public Opt<IExprCtx> ctorArgs = opt(null);
+    // args of each constructor call, more than one only in a widened type
+    public final L<IExprCtx> ctorArgs = L();
     public Opt<PhpType> clsRefType = non();
     public final @Nullable String stringValue;
     public final PsiElement definition;
     public final PhpType briefType;
     public boolean isNumber = false;
     final public boolean isExactPsi;
+    // keys taken from ReturnKeysIndex, values are resolved from PSI on demand
+    public boolean isIndexed = false;
 
     private DeepType(PsiElement definition, PhpType briefType, String stringValue, boolean isExactPsi)
     {
@@ -81,7 +95,7 @@ public class DeepType extends Lang
     public static DeepType makeNew(NewExpression newExp, IExprCtx ctorArgs, PhpType ideaType)
     {
         DeepType self = new DeepType(newExp, ideaType, null);
-        self.ctorArgs = opt(ctorArgs);
+        self.ctorArgs.add(ctorArgs);
         return self;
     }
 
@@ -93,6 +107,75 @@ public class DeepType extends Lang
         return self;
     }
 
+    /**
+     * merges passed types into a single record shape: key union with
+     * values of same-named keys united, number only if all are numbers
+     * used to bound the work on type sets grown from hundreds of paths
+     *
+     * same-named keys from different places stay separate entries,
+     * so that Go To Definition still leads to each of them
+     */
+    public static DeepType widen(L<DeepType> types)
+    {
+        DeepType first = types.get(0);
+        PhpType briefType = Mt.getKeyBriefTypeSt(types.map(t -> t.briefType));
+        DeepType merged = new DeepType(first.definition, briefType, Mt.getStringValueSt(types), false);
+        merged.isNumber = types.all((t, i) -> t.isNumber());
+
+        Map<String, L<Key>> nameToMerged = new LinkedHashMap<>();
+        L<Key> dynamic = L();
+        Map<String, L<Key>> propToMerged = new LinkedHashMap<>();
+        types.fch(t -> {
+            t.nameToKeys.forEach((name, keys) -> {
+                if (!nameToMerged.containsKey(name)) {
+                    nameToMerged.put(name, L());
+                }
+                nameToMerged.get(name).addAll(keys);
+            });
+            dynamic.addAll(t.dynamicKeys);
+            t.props.fch((key, name) -> {
+                if (!propToMerged.containsKey(name)) {
+                    propToMerged.put(name, L());
+                }
+                propToMerged.get(name).add(key);
+            });
+            merged.returnTypeGetters.addAll(t.returnTypeGetters);
+            merged.pdoFetchTypes.addAll(t.pdoFetchTypes);
+            merged.pdoBindVars.addAll(t.pdoBindVars);
+            merged.ctorArgs.addAll(t.ctorArgs);
+            t.clsRefType.thn(clsType -> merged.clsRefType = som(merged.clsRefType
+                .map(had -> new PhpType().add(had).add(clsType)).def(clsType)));
+        });
+
+        nameToMerged.forEach((name, keys) -> groupByDefinition(keys)
+            .fch(group -> mergeValues(group, merged.addKey(name, group.get(0).definition))));
+        groupByDefinition(dynamic).fch(group -> {
+            KeyType keyType = KeyType.mt(() -> group.fap(k -> k.keyType.getTypes.get()), group.get(0).definition);
+            mergeValues(group, merged.addKey(keyType));
+        });
+        propToMerged.forEach((name, props) -> mergeValues(props,
+            merged.addProp(name, props.get(0).definition)));
+        return merged;
+    }
+
+    private static L<L<Key>> groupByDefinition(L<Key> keys)
+    {
+        Map<PsiElement, L<Key>> defToKeys = new LinkedHashMap<>();
+        keys.fch(k -> {
+            if (!defToKeys.containsKey(k.definition)) {
+                defToKeys.put(k.definition, L());
+            }
+            defToKeys.get(k.definition).add(k);
+        });
+        return L(defToKeys.values());
+    }
+
+    private static void mergeValues(L<Key> sources, Key target)
+    {
+        target.addType(() -> new Mt(sources.fap(k -> k.getTypes())),
+            Mt.getKeyBriefTypeSt(sources.fap(k -> k.getBriefTypes())));
+    }
+
     public It<DeepType> getReturnTypes(IExprCtx ctx)
     {
         return returnTypeGetters.fap(g -> g.apply(ctx));
@@ -110,15 +193,20 @@ public class DeepType extends Lang
     {
         DeepType kt = new DeepType(definition, PhpType.STRING, name);
         KeyType keyType = KeyType.mt(() -> It(som(kt)), definition);
-        Key keyEntry = new Key(keyType, definition);
+        Key keyEntry = new Key(keyType, definition, keys.size());
         keys.add(keyEntry);
+        if (!nameToKeys.containsKey(name)) {
+            nameToKeys.put(name, new L<>());
+        }
+        nameToKeys.get(name).add(keyEntry);
         return keyEntry;
     }
 
     public Key addKey(KeyType keyType, PsiElement definition)
     {
-        Key keyEntry = new Key(keyType, definition);
+        Key keyEntry = new Key(keyType, definition, keys.size());
         keys.add(keyEntry);
+        dynamicKeys.add(keyEntry);
         return keyEntry;
     }
 
@@ -127,11 +215,33 @@ public class DeepType extends Lang
         return addKey(keyType, keyType.definition);
     }
 
+    /**
+     * keys that may match the passed name: literal ones are taken from the
+     * index, dynamic ones are checked by their resolved key type like before
+     * keeps the order in which keys were added
+     */
+    public It<Key> getKeysByName(String keyName)
+    {
+        L<Key> literal = opt(nameToKeys.get(keyName)).def(L());
+        if (dynamicKeys.size() == 0) {
+            return literal.itr();
+        }
+        return It(() -> {
+            L<Key> matching = It.cnc(literal, dynamicKeys
+                .flt(k -> k.keyType.getTypes.get()
+                    .any(kt -> kt.stringValue == null
+                        && (!kt.isNumber() || Tls.isNum(keyName))
+                        || keyName.equals(kt.stringValue))))
+                .arr();
+            return matching.srt(k -> k.order).iterator();
+        });
+    }
+
     public Key addProp(String name, PsiElement definition)
     {
         DeepType kt = new DeepType(definition, PhpType.STRING, name);
         KeyType keyType = KeyType.mt(() -> It(som(kt)), definition);
-        Key keyEntry = new Key(keyType, definition);
+        Key keyEntry = new Key(keyType, definition, props.size());
         props.put(name, keyEntry);
         return keyEntry;
     }
@@ -145,11 +255,14 @@ public class DeepType extends Lang
         final private L<PhpType> briefTypes = L();
         // where Go To Definition will lead
         final public PsiElement definition;
+        // position in the keys list of the array
+        final private int order;
 
-        private Key(KeyType keyType, PsiElement definition)
+        private Key(KeyType keyType, PsiElement definition, int order)
         {
             this.keyType = keyType;
             this.definition = definition;
+            this.order = order;
         }
 
         public void addType(S<Mt> getter, PhpType briefType)
@@ -251,7 +364,7 @@ public class DeepType extends Lang
     public boolean isNumber()
     {
         if (stringValue != null &&
-            Tls.regex("^\\d+$", stringValue).has()
+            Tls.isNum(stringValue)
         ) {
             return true;
         } else {
@@ -259,6 +372,56 @@ public class DeepType extends Lang
         }
     }
 
+    /**
+     * structural identity used to remove duplicates - types with same shape
+     * produced through different call paths get equal fingerprints
+     *
+     * key values are resolved FINGERPRINT_DEPTH levels deep, since they are
+     * bound to the context that created the type: same array literal resolved
+     * with different args must stay two types. Keyed types deeper than that, types
+     * with dynamic keys or too many value types, as well as closures and objects
+     * that hold args of their context, are only equal to themselves
+     *
+     * not memoized, since keys may still be added after first call
+     */
+    public Object getFingerprint()
+    {
+        return getFingerprint(FINGERPRINT_DEPTH);
+    }
+
+    private Object getFingerprint(int depth)
+    {
+        boolean onlySelf = returnTypeGetters.size() > 0 || ctorArgs.size() > 0
+            || pdoFetchTypes.size() > 0 || pdoBindVars.size() > 0
+            || dynamicKeys.size() > 0
+            || depth <= 0 && (keys.size() > 0 || props.size() > 0);
+        if (onlySelf) {
+            return this;
+        }
+        Map<String, Object> keyPrints = new HashMap<>();
+        nameToKeys.forEach((name, nameKeys) -> keyPrints.put(name,
+            nameKeys.map(k -> fingerprintKey(k, depth - 1)).arr()));
+        return Arrays.asList(
+            definition, briefType.getTypes(), stringValue, isNumber, isExactPsi, isIndexed,
+            clsRefType.map(t -> t.getTypes()).def(null), keyPrints,
+            props.kys().arr().srt(name -> name).map(name -> Arrays.asList(
+                name, fingerprintKey(props.get(name), depth - 1))).arr()
+        );
+    }
+
+    private static Object fingerprintKey(Key key, int depth)
+    {
+        L<DeepType> valueTypes = key.getTypes().lmt(FINGERPRINT_VALUE_TYPES + 1).arr();
+        if (valueTypes.size() > FINGERPRINT_VALUE_TYPES) {
+            return key;
+        }
+        return Arrays.asList(
+            key.definition,
+            key.getBriefTypes().map(t -> t.getTypes()).arr(),
+            new HashSet<>(valueTypes.map(t -> t.getFingerprint(depth)).arr())
+        );
+    }
+
     public Mt mt()
     {
         return new Mt(list(this));
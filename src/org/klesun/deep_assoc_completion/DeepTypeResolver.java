@@ -12,6 +12,8 @@ import org.klesun.deep_assoc_completion.helpers.IExprCtx;
 import org.klesun.deep_assoc_completion.resolvers.*;
 import org.klesun.lang.*;
 
+import java.util.Iterator;
+
 import static org.klesun.lang.Lang.*;
 
 /**
@@ -37,75 +39,110 @@ public class DeepTypeResolver
         }
     }
 
-    public static It<DeepType> resolveIn(PhpExpression expr, IExprCtx ctx)
+    /** a resolver applicable to some kind of expression, name is for metrics */
+    private static class Branch
     {
-        It<DeepType> tit = It.frs(() -> It.non()
-            , () -> Tls.cast(VariableImpl.class, expr)
-                .fap(v -> new VarRes(ctx).resolve(v))
-            , () -> Tls.cast(ArrayCreationExpressionImpl.class, expr)
-                .fap(arr -> new ArrCtorRes(ctx).resolve(arr).mt().types)
-            , () -> Tls.cast(FunctionReferenceImpl.class, expr)
-                .fap(call -> new FuncCallRes(ctx).resolve(call))
-            , () -> Tls.cast(ArrayAccessExpressionImpl.class, expr)
-                .fap(keyAccess -> new ArrAccRes(ctx).resolve(keyAccess))
-            , () -> Tls.cast(StringLiteralExpressionImpl.class, expr)
-                .fap(lit -> list(new DeepType(lit)))
-            , () -> Tls.cast(StringLiteralExpressionImpl.class, expr)
-                .fap(lit -> list(new DeepType(lit)))
-            , () -> Tls.cast(ConstantReferenceImpl.class, expr)
-                .flt(cst -> // they are defined through themselves in Core_d.php
-                    !cst.getText().toLowerCase().equals("null") &&
-                    !cst.getText().toLowerCase().equals("true") &&
-                    !cst.getText().toLowerCase().equals("false"))
-                .fap(cst -> It(cst.multiResolve(false))
-                    .map(ref -> ref.getElement())
-                    .fop(toCast(PhpDefineImpl.class))
-                    .fop(def -> opt(def.getValue()))
-                    .fop(toCast(PhpExpression.class))
-                    .fap(exp -> ctx.findExprType(exp)))
-            , () -> Tls.cast(AssignmentExpression.class, expr)
-                .map(ass -> ass.getValue())
-                .fop(toCast(PhpExpression.class))
-                .fap(val -> ctx.findExprType(val))
-            , () -> Tls.cast(ParenthesizedExpression.class, expr)
-                .map(par -> par.getArgument())
+        final String name;
+        final F<PhpExpression, Boolean> isApplicable;
+        final F2<PhpExpression, IExprCtx, Iterable<DeepType>> resolve;
+
+        Branch(String name, F<PhpExpression, Boolean> isApplicable, F2<PhpExpression, IExprCtx, Iterable<DeepType>> resolve)
+        {
+            this.name = name;
+            this.isApplicable = isApplicable;
+            this.resolve = resolve;
+        }
+    }
+
+    private static <T extends PhpExpression> Branch branch(String name, Class<T> cls, F<T, Boolean> flt, F2<T, IExprCtx, Iterable<DeepType>> resolve)
+    {
+        return new Branch(name,
+            expr -> Tls.cast(cls, expr).any(casted -> flt.apply(casted)),
+            (expr, ctx) -> resolve.apply(cls.cast(expr), ctx));
+    }
+
+    private static <T extends PhpExpression> Branch branch(String name, Class<T> cls, F2<T, IExprCtx, Iterable<DeepType>> resolve)
+    {
+        return branch(name, cls, casted -> true, resolve);
+    }
+
+    private static It<DeepType> resolveClsRef(ClassReferenceImpl expr, IExprCtx ctx)
+    {
+        It<DeepType> clsTit = It.frs(
+            () -> opt(expr.getFirstChild())
+                // in `new $someVar()` it is Variable PSI, in `new SomeCls()` it is Leaf PSI
                 .fop(toCast(PhpExpression.class))
-                .fap(val -> ctx.findExprType(val))
-            , () -> Tls.cast(ClassReferenceImpl.class, expr)
-                .fap(ref -> {
-                    It<DeepType> clsTit = It.frs(
-                        () -> opt(expr.getFirstChild())
-                            // in `new $someVar()` it is Variable PSI, in `new SomeCls()` it is Leaf PSI
-                            .fop(toCast(PhpExpression.class))
-                            .fap(clsVar -> ctx.findExprType(clsVar)),
-                        () -> som(DeepType.makeClsRef(expr, expr.getType()))
-                    );
-                    if (FuncCtx.isWhitelistedStaticThis(expr) &&
-                        list("self", "static").contains(expr.getText())
-                    ) {
-                        // deprecated PHP feature - to access non-static fields/methods from non-static context via self::
-                        clsTit = It.cnc(clsTit, ctx.getThisType());
-                    }
-                    return clsTit;
-                })
-            , () -> Tls.cast(ClassConstantReferenceImpl.class, expr)
-                .fap(cst -> resolveClsConst(cst, ctx))
-            , () -> Tls.cast(PhpExpressionImpl.class, expr)
-                .map(v -> v.getFirstChild())
-                .fop(toCast(FunctionImpl.class))
-                .fap(lambda -> list(new ClosRes(ctx).resolve(lambda)))
-            , () -> Tls.cast(PhpExpressionImpl.class, expr)
-                .fap(casted -> opt(casted.getText())
-                    .flt(text -> Tls.regex("^\\d+$", text).has())
-                    .map(Integer::parseInt)
-                    .fap(num -> list(new DeepType(casted, num))))
-            // leave rest to MiscRes
-            , () -> new MiscRes(ctx).resolve(expr)
-            , () -> Tls.cast(MethodReferenceImpl.class, expr)
-                .fap(call -> new MethCallRes(ctx).resolveCall(call))
+                .fap(clsVar -> ctx.findExprType(clsVar)),
+            () -> som(DeepType.makeClsRef(expr, expr.getType()))
         );
-        if (tit.has()) {
-            return tit;
+        if (FuncCtx.isWhitelistedStaticThis(expr) &&
+            list("self", "static").contains(expr.getText())
+        ) {
+            // deprecated PHP feature - to access non-static fields/methods from non-static context via self::
+            clsTit = It.cnc(clsTit, ctx.getThisType());
+        }
+        return clsTit;
+    }
+
+    // first applicable branch that gave any type wins
+    final private static L<Branch> BRANCHES = list(
+        branch("VarRes", VariableImpl.class, (v, ctx) -> new VarRes(ctx).resolve(v)),
+        branch("ArrCtorRes", ArrayCreationExpressionImpl.class, (arr, ctx) -> new ArrCtorRes(ctx).resolve(arr).mt().types),
+        branch("FuncCallRes", FunctionReferenceImpl.class, (call, ctx) -> new FuncCallRes(ctx).resolve(call)),
+        branch("ArrAccRes", ArrayAccessExpressionImpl.class, (keyAccess, ctx) -> new ArrAccRes(ctx).resolve(keyAccess)),
+        branch("StringLiteral", StringLiteralExpressionImpl.class, (lit, ctx) -> list(new DeepType(lit))),
+        branch("ConstRes", ConstantReferenceImpl.class,
+            cst -> // they are defined through themselves in Core_d.php
+                !cst.getText().toLowerCase().equals("null") &&
+                !cst.getText().toLowerCase().equals("true") &&
+                !cst.getText().toLowerCase().equals("false"),
+            (cst, ctx) -> It(cst.multiResolve(false))
+                .map(ref -> ref.getElement())
+                .fop(toCast(PhpDefineImpl.class))
+                .fop(def -> opt(def.getValue()))
+                .fop(toCast(PhpExpression.class))
+                .fap(exp -> ctx.findExprType(exp))),
+        branch("AssignRes", AssignmentExpression.class, (ass, ctx) -> opt(ass.getValue())
+            .fop(toCast(PhpExpression.class))
+            .fap(val -> ctx.findExprType(val))),
+        branch("ParenRes", ParenthesizedExpression.class, (par, ctx) -> opt(par.getArgument())
+            .fop(toCast(PhpExpression.class))
+            .fap(val -> ctx.findExprType(val))),
+        branch("ClassRef", ClassReferenceImpl.class, (ref, ctx) -> resolveClsRef(ref, ctx)),
+        branch("ConstRes", ClassConstantReferenceImpl.class, (cst, ctx) -> resolveClsConst(cst, ctx)),
+        branch("ClosRes", PhpExpressionImpl.class,
+            casted -> casted.getFirstChild() instanceof FunctionImpl,
+            (casted, ctx) -> list(new ClosRes(ctx).resolve((FunctionImpl)casted.getFirstChild()))),
+        branch("NumberLiteral", PhpExpressionImpl.class,
+            casted -> opt(casted.getText()).any(text -> Tls.isNum(text)),
+            (casted, ctx) -> list(new DeepType(casted, Integer.parseInt(casted.getText())))),
+        branch("MiscRes", PhpExpression.class,
+            expr -> expr instanceof TernaryExpressionImpl
+                || expr instanceof BinaryExpressionImpl
+                || expr instanceof NewExpressionImpl,
+            (expr, ctx) -> new MiscRes(ctx).resolve(expr)),
+        branch("MethCallRes", MethodReferenceImpl.class, (call, ctx) -> new MethCallRes(ctx).resolveCall(call))
+    );
+
+    private static It<Branch> getBranches(PhpExpression expr)
+    {
+        return BRANCHES.flt(b -> b.isApplicable.apply(expr));
+    }
+
+    /** for metrics - name of the first branch of resolveIn() that is applicable to the expression */
+    public static String getResolverName(PhpExpression expr)
+    {
+        return getBranches(expr).fst().map(b -> b.name)
+            .def(expr instanceof FieldReferenceImpl ? "FieldRes" : "IdeaType");
+    }
+
+    public static It<DeepType> resolveIn(PhpExpression expr, IExprCtx ctx)
+    {
+        for (Branch branch: getBranches(expr)) {
+            Iterator<DeepType> itr = branch.resolve.apply(expr, ctx).iterator();
+            if (itr.hasNext()) {
+                return It(() -> itr);
+            }
         }
 
         return Opt.fst(
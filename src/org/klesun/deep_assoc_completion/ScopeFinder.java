@@ -1,14 +1,19 @@
 package org.klesun.deep_assoc_completion;
 
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.jetbrains.php.lang.psi.elements.*;
 import com.jetbrains.php.lang.psi.elements.impl.*;
-import org.klesun.lang.L;
 import org.klesun.lang.Lang;
 import org.klesun.lang.Opt;
 import org.klesun.lang.Tls;
 
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -17,6 +22,119 @@ import java.util.Objects;
  */
 public class ScopeFinder extends Lang
 {
+    /**
+     * a GroupStatement of the function numbered in pre-order, so that checking
+     * whether one scope is inside another was a comparison of two numbers
+     * rather than a climb through parents of each declaration of the var
+     *
+     * each function (or file body) has its own numbering, so that a change in
+     * one function did not require to renumber all, outermost scope of a
+     * function refers to the scope of the function definition as its parent
+     */
+    private static class Scope
+    {
+        final GroupStatement group;
+        // function or file whose numbering this scope belongs to
+        final PsiElement owner;
+        final Opt<Scope> parent;
+        final int depth;
+        final int pre;
+        // pre-order number of the first scope after this one and its children
+        int post;
+        // whether there is a loop around this scope in same function
+        final boolean isInALoop;
+
+        Scope(GroupStatement group, PsiElement owner, Opt<Scope> parent, int pre, boolean isInALoop)
+        {
+            this.group = group;
+            this.owner = owner;
+            this.parent = parent;
+            this.depth = parent.map(p -> p.depth + 1).def(0);
+            this.pre = pre;
+            this.post = pre + 1;
+            this.isInALoop = isInALoop;
+        }
+
+        boolean contains(Scope other)
+        {
+            // scopes of nested functions are compared by the scope of their definition
+            Scope sameOwner = other;
+            while (sameOwner.owner != owner) {
+                if (!sameOwner.parent.has() || sameOwner.depth <= depth) {
+                    return false;
+                }
+                sameOwner = sameOwner.parent.unw();
+            }
+            return pre <= sameOwner.pre && sameOwner.pre < post;
+        }
+
+        Scope getAncestor(int atDepth)
+        {
+            Scope scope = this;
+            while (scope.depth > atDepth && scope.parent.has()) {
+                scope = scope.parent.unw();
+            }
+            return scope;
+        }
+    }
+
+    private static boolean isLoop(PsiElement psi)
+    {
+        return psi instanceof For
+            || psi instanceof While
+            || psi instanceof ForeachImpl
+            || psi instanceof DoWhile;
+    }
+
+    /** @param owner - a function or a file, nested functions are left to their own trees */
+    private static Map<PsiElement, Scope> buildScopes(PsiElement owner)
+    {
+        Opt<Scope> definitionScope = owner instanceof Function ? getScope(owner) : non();
+        Map<PsiElement, Scope> groupToScope = new HashMap<>();
+        owner.accept(new PsiRecursiveElementWalkingVisitor() {
+            final Deque<Scope> scopes = new ArrayDeque<>();
+            int loopDepth = 0;
+            int order = 0;
+
+            public void visitElement(PsiElement psi) {
+                if (psi instanceof Function && psi != owner) {
+                    return;
+                } else if (isLoop(psi)) {
+                    ++loopDepth;
+                }
+                if (psi instanceof GroupStatement) {
+                    Opt<Scope> parent = opt(scopes.peek()).elf(() -> definitionScope);
+                    Scope scope = new Scope((GroupStatement)psi, owner, parent, order++, loopDepth > 0);
+                    groupToScope.put(psi, scope);
+                    scopes.push(scope);
+                }
+                super.visitElement(psi);
+            }
+
+            protected void elementFinished(PsiElement psi) {
+                if (psi instanceof GroupStatement) {
+                    scopes.pop().post = order;
+                } else if (isLoop(psi)) {
+                    --loopDepth;
+                }
+            }
+        });
+        return groupToScope;
+    }
+
+    /** built once per file modification for each function it is asked for, shared by all searches */
+    private static Opt<Scope> getScopeOf(PsiElement group)
+    {
+        PsiElement owner = Tls.findParent(group, Function.class, a -> true)
+            .map(func -> (PsiElement)func)
+            .def(group.getContainingFile());
+        if (owner == null) {
+            return non();
+        }
+        return opt(CachedValuesManager.getCachedValue(owner, () -> CachedValueProvider.Result.create(
+            buildScopes(owner), owner.getContainingFile())).get(group));
+    }
+
     private static Opt<PsiElement> getParentScope(PsiElement psi)
     {
         PsiElement next = psi.getParent();
@@ -30,15 +148,9 @@ public class ScopeFinder extends Lang
         return new Opt(null);
     }
 
-    private static L<PsiElement> getParentScopes(PsiElement psi)
+    private static Opt<Scope> getScope(PsiElement psi)
     {
-        L<PsiElement> result = list();
-        Opt<PsiElement> next = getParentScope(psi);
-        while (next.has()) {
-            next.thn(result::add);
-            next = getParentScope(next.def(null));
-        }
-        return result;
+        return getParentScope(psi).fop(group -> getScopeOf(group));
     }
 
     private static boolean isPartOf(PsiElement child, PsiElement grandParent)
@@ -53,15 +165,11 @@ public class ScopeFinder extends Lang
         return false;
     }
 
+    /** condition can not contain statements, so we stop at the first scope */
     private static Opt<ControlStatementImpl> isInElseIfCondition(PsiElement varReference)
     {
-        // you probably want to optimize it cuz now it scans full
-        // parent chain when no elseif was found, but correct would
-        // be to stop when complete expression root was found
-        // oh, and isPartOf() re-iterates through parents again
-
         PsiElement parent = varReference;
-        while (parent != null) {
+        while (parent != null && !(parent instanceof GroupStatement) && !(parent instanceof Function)) {
             PsiElement finalParent = parent;
             Opt<ControlStatementImpl> maybeControl = Opt.fst(
                 () -> opt(null)
@@ -70,7 +178,8 @@ public class ScopeFinder extends Lang
                     .map(v -> v)
             );
             if (maybeControl.has()) {
-                return maybeControl.flt(v -> isPartOf(varReference, v.getCondition()));
+                return maybeControl.flt(v -> opt(v.getCondition())
+                    .any(cond -> cond.getTextRange().contains(varReference.getTextRange())));
             }
             parent = parent.getParent();
         }
@@ -107,14 +216,6 @@ public class ScopeFinder extends Lang
         }
     }
 
-    private static boolean isInALoop(PsiElement stmtPsi)
-    {
-        return Tls.findParent(stmtPsi, For.class, psi -> !(psi instanceof Function)).map(a -> true).def(false)
-            || Tls.findParent(stmtPsi, While.class, psi -> !(psi instanceof Function)).map(a -> true).def(false)
-            || Tls.findParent(stmtPsi, ForeachImpl.class, psi -> !(psi instanceof Function)).map(a -> true).def(false)
-            || Tls.findParent(stmtPsi, DoWhile.class, psi -> !(psi instanceof Function)).map(a -> true).def(false);
-    }
-
     /**
      * // and this will be true
      * $someVar = ['someKey' => 'dsa'];
@@ -136,28 +237,28 @@ public class ScopeFinder extends Lang
     {
         if (isPartOfAssignment(reference, caretVar)) {
             return false;
+        } else if (!Objects.equals(reference.getContainingFile(), caretVar.getContainingFile())) {
+            // offsets and scopes of different files can not be compared
+            return false;
         } else if (caretVar.getTextOffset() < reference.getTextOffset()) {
             return false;
         }
 
-        Opt<PsiElement> refScope = getParentScope(reference);
-        List<PsiElement> varScopes = getParentScopes(caretVar);
+        Opt<Scope> varScope = getScope(caretVar);
 
         Opt<ControlStatementImpl> elseIf = isInElseIfCondition(reference);
         if (elseIf.has()) {
             for (PsiElement part: elseIf.def(null).getChildren()) {
                 if (part instanceof GroupStatement) {
-                    return varScopes.stream().anyMatch(s -> s.isEquivalentTo(part));
+                    return getScopeOf(part)
+                        .any(partScope -> varScope.any(partScope::contains));
                 }
             }
             return false;
         }
 
-        return refScope
-            .map(declScope -> varScopes
-                .stream()
-                .anyMatch(scope -> scope.isEquivalentTo(declScope)))
-            .def(false);
+        return getScope(reference)
+            .any(declScope -> varScope.any(declScope::contains));
     }
 
     /**
@@ -187,45 +288,38 @@ public class ScopeFinder extends Lang
             return false;
         }
 
-        L<PsiElement> scopesL = getParentScopes(reference);
-        L<PsiElement> scopesR = getParentScopes(caretVar);
-
-        int l = 0;
-        int r = 0;
+        Opt<Scope> scopeMbL = getScope(reference);
+        Opt<Scope> scopeMbR = getScope(caretVar);
+        if (!scopeMbL.has() || !scopeMbR.has()) {
+            return false;
+        }
+        Scope scopeL = scopeMbL.unw();
+        Scope scopeR = scopeMbR.unw();
 
         // 1. find deepest same scope
-        while (l < scopesL.size() && r < scopesR.size()) {
-            if (scopesL.get(l).getTextOffset() < scopesR.get(r).getTextOffset()) {
-                ++r;
-            } else if (scopesL.get(l).getTextOffset() > scopesR.get(r).getTextOffset()) {
-                ++l;
-            } else {
-                // could check offset of parent/child to handle
-                // cases when different psi have same offset
-                // or use textrange
-                break;
-            }
+        Opt<Scope> common = som(scopeL);
+        while (common.has() && !common.unw().contains(scopeR)) {
+            common = common.unw().parent;
         }
-
-        // 2. if right inside it are (if|elseif) and (elseif|else) respectively, then false
-        if (l < scopesL.size() && r < scopesR.size()) {
-            if (l > 0 && r > 0) {
-                PsiElement scopeL = scopesL.get(l - 1);
-                PsiElement scopeR = scopesR.get(r - 1);
-                return opt(scopeL.getParent())
-                    .flt(ifPar -> ifPar instanceof If || ifPar instanceof ElseIf)
-                    .fop(ifPar -> opt(scopeR.getParent())
-                        .flt(elsePar -> elsePar instanceof Else || elsePar instanceof ElseIf)
-                        .map(elsePar -> {
-                            boolean incompatibleScopes = areIfElseChained(ifPar, elsePar) && !isInALoop(ifPar);
-                            return !incompatibleScopes;
-                        }))
-                    .def(true);
-            } else {
-                return true;
-            }
-        } else {
+        if (!common.has()) {
             return false;
         }
+        int commonDepth = common.unw().depth;
+        if (commonDepth == scopeL.depth || commonDepth == scopeR.depth) {
+            return true;
+        }
+
+        // 2. if right inside it are (if|elseif) and (elseif|else) respectively, then false
+        Scope branchL = scopeL.getAncestor(commonDepth + 1);
+        Scope branchR = scopeR.getAncestor(commonDepth + 1);
+        return opt(branchL.group.getParent())
+            .flt(ifPar -> ifPar instanceof If || ifPar instanceof ElseIf)
+            .fop(ifPar -> opt(branchR.group.getParent())
+                .flt(elsePar -> elsePar instanceof Else || elsePar instanceof ElseIf)
+                .map(elsePar -> {
+                    boolean incompatibleScopes = areIfElseChained(ifPar, elsePar) && !branchL.isInALoop;
+                    return !incompatibleScopes;
+                }))
+            .def(true);
     }
 }
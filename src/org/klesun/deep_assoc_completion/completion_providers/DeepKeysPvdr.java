@@ -54,6 +54,13 @@ public class DeepKeysPvdr extends CompletionProvider<CompletionParameters>
         return getMaxDepth(parameters.isAutoPopup(), parameters.getEditor().getProject());
     }
 
+    /** only for explicit Ctrl+Space - auto-popup should not occupy all cores on each keystroke */
+    public static boolean isParallel(CompletionParameters parameters)
+    {
+        return !parameters.isAutoPopup() && opt(parameters.getEditor().getProject())
+            .any(project -> DeepSettings.inst(project).parallelResolutionEnabled);
+    }
+
     private static InsertHandler<LookupElement> makeInsertHandler()
     {
         return (ctx, lookup) -> {
@@ -155,7 +162,9 @@ public class DeepKeysPvdr extends CompletionProvider<CompletionParameters>
     protected void addCompletions(@NotNull CompletionParameters parameters, ProcessingContext processingContext, @NotNull CompletionResultSet result)
     {
         int depth = getMaxDepth(parameters);
-        SearchContext search = new SearchContext(parameters).setDepth(depth);
+        SearchContext search = new SearchContext(parameters).setDepth(depth)
+            .setParallel(isParallel(parameters))
+            .setUseIndexes(true);
         FuncCtx funcCtx = new FuncCtx(search);
         search.isMain = true;
         Set<String> suggested = new HashSet<>();
@@ -207,7 +216,7 @@ public class DeepKeysPvdr extends CompletionProvider<CompletionParameters>
             });
         });
         long elapsed = System.nanoTime() - startTime;
-        System.out.println("Resolved all key names in " + search.getExpressionsResolved() + " expressions");
+        System.out.println("Resolved all key names in " + search.getExpressionsResolved() + " expressions, " + search.getCacheStats());
         result.addLookupAdvertisement("Press _Ctrl + Space_ for more options. Resolved " + search.getExpressionsResolved() +
             " expressions in " + (elapsed / 1000000000.0) + " sec. First in " + (firstTime.get() / 1000000000.0));
 
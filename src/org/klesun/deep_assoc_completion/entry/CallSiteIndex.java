@@ -0,0 +1,222 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.*;
+import com.jetbrains.php.lang.psi.elements.impl.ArrayCreationExpressionImpl;
+import com.jetbrains.php.lang.psi.elements.impl.MethodReferenceImpl;
+import com.jetbrains.php.lang.psi.elements.impl.VariableImpl;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.lang.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * call sites for inferring arg types from usages:
+ *
+ * "\Ns\Cls.meth" -> `$this->meth(...)`, `self::meth(...)`, `static::meth(...)`
+ *     and `[$this, 'meth']` callables written inside of the class
+ * "123$varName" -> usages of a variable as an arg or as a callee in the
+ *     function starting at offset 123 (-1 for the file body), for
+ *     closures assigned to variables and parameters called as functions
+ *
+ * call sites are ordered by distance from the function, and their count
+ * is capped, since each of them is resolved to infer the arg type
+ */
+public class CallSiteIndex extends FileBasedIndexExtension<String, L<Integer>>
+{
+    final public static ID<String, L<Integer>> NAME = ID.create("org.klesun.deep_assoc_completion.CallSiteIndex");
+    final private static int MAX_CALL_SITES = 50;
+
+    private static boolean isSelfRef(String text)
+    {
+        return text.equals("$this") || text.equals("self") || text.equals("static");
+    }
+
+    private static boolean isSelfCallable(ArrayCreationExpression arr)
+    {
+        PsiElement[] children = arr.getChildren();
+        return children.length == 2
+            && (children[0].getText().equals("$this")
+                || children[0].getText().equals("self::class")
+                || children[0].getText().equals("static::class"))
+            && getCallableName(arr).has();
+    }
+
+    private static Opt<String> getCallableName(ArrayCreationExpression arr)
+    {
+        return L(arr.getChildren()).gat(1)
+            .map(psi -> psi.getFirstChild())
+            .fop(toCast(StringLiteralExpression.class))
+            .map(str -> str.getContents());
+    }
+
+    private static String makeMethKey(String clsFqn, String methName)
+    {
+        return clsFqn + "." + methName;
+    }
+
+    private static String makeVarKey(PsiElement varPsi, String varName)
+    {
+        int scopeOffset = Tls.findParent(varPsi, Function.class, a -> true)
+            .map(func -> func.getTextOffset()).def(-1);
+        return scopeOffset + "$" + varName;
+    }
+
+    /** `$var` in `doStuff($var)` or in `$var($arg)` */
+    private static boolean isPassedOrCalled(Variable var)
+    {
+        PsiElement parent = var.getParent();
+        return parent instanceof ParameterList
+            || parent instanceof FunctionReference
+                && !(parent instanceof MethodReference)
+                && var.isEquivalentTo(parent.getFirstChild());
+    }
+
+    @NotNull
+    @Override
+    public ID<String, L<Integer>> getName()
+    {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, L<Integer>, FileContent> getIndexer()
+    {
+        return inputData -> {
+            Map<String, L<Integer>> keyToOffsets = new HashMap<>();
+            C2<String, PsiElement> add = (key, psi) -> {
+                if (!keyToOffsets.containsKey(key)) {
+                    keyToOffsets.put(key, L());
+                }
+                keyToOffsets.get(key).add(psi.getTextOffset());
+            };
+            PsiFile file = inputData.getPsiFile();
+            PsiTreeUtil.findChildrenOfType(file, MethodReference.class).forEach(call -> {
+                Opt<String> clsFqn = Tls.findParent(call, PhpClass.class, a -> true).map(cls -> cls.getFQN());
+                boolean isSelf = opt(call.getClassReference()).any(ref -> isSelfRef(ref.getText()));
+                if (isSelf && clsFqn.has() && call.getName() != null) {
+                    add.accept(makeMethKey(clsFqn.unw(), call.getName()), call);
+                }
+            });
+            PsiTreeUtil.findChildrenOfType(file, ArrayCreationExpression.class).forEach(arr -> {
+                Opt<String> clsFqn = Tls.findParent(arr, PhpClass.class, a -> true).map(cls -> cls.getFQN());
+                if (clsFqn.has() && isSelfCallable(arr)) {
+                    add.accept(makeMethKey(clsFqn.unw(), getCallableName(arr).unw()), arr);
+                }
+            });
+            PsiTreeUtil.findChildrenOfType(file, Variable.class).forEach(var -> {
+                if (var.getName() != null && isPassedOrCalled(var)) {
+                    add.accept(makeVarKey(var, var.getName()), var);
+                }
+            });
+            return keyToOffsets;
+        };
+    }
+
+    @NotNull
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor()
+    {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<L<Integer>> getValueExternalizer()
+    {
+        return OffsetsExternalizer.INSTANCE;
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return 1;
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter()
+    {
+        return file -> file.getFileType() == PhpFileType.INSTANCE;
+    }
+
+    @Override
+    public boolean dependsOnFileContent()
+    {
+        return true;
+    }
+
+    /**
+     * keys of vars include offset of the function, that is taken from the document while
+     * typing, so it does not match the PSI until document is committed - scan the file then
+     */
+    private static boolean isUncommitted(PsiFile file)
+    {
+        PsiDocumentManager docs = PsiDocumentManager.getInstance(file.getProject());
+        return opt(docs.getCachedDocument(file)).any(doc -> docs.isUncommited(doc));
+    }
+
+    /** @return leaf PSI at the start of each call site */
+    private static Opt<It<PsiElement>> findInFile(PsiFile file, String key, int anchorOffset)
+    {
+        VirtualFile vFile = file.getVirtualFile();
+        if (vFile == null || DumbService.isDumb(file.getProject()) || isUncommitted(file)) {
+            return non();
+        }
+        GlobalSearchScope scope = GlobalSearchScope.fileScope(file.getProject(), vFile);
+        L<Integer> offsets = L(FileBasedIndex.getInstance().getValues(NAME, key, scope))
+            .fap(offs -> offs).arr();
+        return som(offsets.srt(offset -> Math.abs(offset - anchorOffset))
+            .lmt(MAX_CALL_SITES)
+            .fop(offset -> opt(file.findElementAt(offset))));
+    }
+
+    /**
+     * @return `$this->meth()`-like calls and `[$this, 'meth']` callables,
+     *         or non() if index is not available, so caller could scan the file
+     */
+    public static Opt<It<PhpExpression>> findSelfCalls(Method meth)
+    {
+        String name = meth.getName();
+        return opt(meth.getContainingClass())
+            .fop(cls -> opt(meth.getContainingFile())
+                .fop(file -> findInFile(file, makeMethKey(cls.getFQN(), name), meth.getTextOffset())))
+            // index may be a bit behind the PSI in not yet committed documents
+            .map(leaves -> leaves.fop(leaf -> Opt.fst(
+                () -> opt(PsiTreeUtil.getParentOfType(leaf, MethodReferenceImpl.class, false))
+                    .flt(call -> name.equals(call.getName()))
+                    .map(call -> (PhpExpression)call),
+                () -> opt(PsiTreeUtil.getParentOfType(leaf, ArrayCreationExpressionImpl.class, false))
+                    .flt(arr -> isSelfCallable(arr) && getCallableName(arr).any(name::equals))
+                    .map(arr -> (PhpExpression)arr)
+            )));
+    }
+
+    /**
+     * @param varPsi - declaration or any usage of the var, to find the function it belongs to
+     * @return usages of the var passed as an arg or called as a function
+     */
+    public static Opt<It<VariableImpl>> findPassedOrCalled(PsiElement varPsi, String varName)
+    {
+        return opt(varPsi.getContainingFile())
+            .fop(file -> findInFile(file, makeVarKey(varPsi, varName), varPsi.getTextOffset()))
+            .map(leaves -> leaves
+                .fop(leaf -> opt(PsiTreeUtil.getParentOfType(leaf, VariableImpl.class, false)))
+                .flt(var -> varName.equals(var.getName())));
+    }
+}
@@ -19,6 +19,8 @@ public class DeepSettings implements PersistentStateComponent<DeepSettings> {
     public Integer implicitDepthLimit = 25;
     public Integer totalExpressionLimit = 10000;
     public Boolean removeUnusedImportsOnSaveEnabled = false;
+    public Boolean parallelResolutionEnabled = false;
+    public Integer typeWideningThreshold = 0; // 0 - disabled, since values of merged paths get mixed
 
     public static DeepSettings inst(Project project) {
         return ServiceManager.getService(project, DeepSettings.class);
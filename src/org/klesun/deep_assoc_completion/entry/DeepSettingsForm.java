@@ -26,6 +26,8 @@ public class DeepSettingsForm implements Configurable
     private JFormattedTextField implicitDepthLimit;
     private JCheckBox removeUnusedImportsOnSaveEnabled;
     private JFormattedTextField totalExpressionLimit;
+    private JCheckBox parallelResolutionEnabled;
+    private JFormattedTextField typeWideningThreshold;
 
     @Nls
     @Override
@@ -48,11 +50,13 @@ public class DeepSettingsForm implements Configurable
     public boolean isModified() {
         return !getSettings().bgTypePvdrEnabled == bgTypePvdrEnabled.isSelected()
             || !getSettings().removeUnusedImportsOnSaveEnabled == removeUnusedImportsOnSaveEnabled.isSelected()
+            || !getSettings().parallelResolutionEnabled == parallelResolutionEnabled.isSelected()
             || !getSettings().bgTypePvdrDepthLimit.toString().equals(bgTypePvdrDepthLimit.getText())
             || !getSettings().bgTypePvdrTimeout.toString().equals(bgTypePvdrTimeout.getText())
             || !getSettings().explicitDepthLimit.toString().equals(explicitDepthLimit.getText())
             || !getSettings().implicitDepthLimit.toString().equals(implicitDepthLimit.getText())
             || !getSettings().totalExpressionLimit.toString().equals(totalExpressionLimit.getText())
+            || !getSettings().typeWideningThreshold.toString().equals(typeWideningThreshold.getText())
             ;
     }
 
@@ -76,22 +80,26 @@ public class DeepSettingsForm implements Configurable
     public void apply() throws ConfigurationException {
         getSettings().bgTypePvdrEnabled = bgTypePvdrEnabled.isSelected();
         getSettings().removeUnusedImportsOnSaveEnabled = removeUnusedImportsOnSaveEnabled.isSelected();
+        getSettings().parallelResolutionEnabled = parallelResolutionEnabled.isSelected();
         getSettings().bgTypePvdrDepthLimit = validateInt(bgTypePvdrDepthLimit, 0, 100);
         getSettings().bgTypePvdrTimeout = validateInt(bgTypePvdrTimeout, 5, 10000);
         getSettings().explicitDepthLimit = validateInt(explicitDepthLimit, 0, 100);
         getSettings().implicitDepthLimit = validateInt(implicitDepthLimit, 0, 100);
         getSettings().totalExpressionLimit = validateInt(totalExpressionLimit, 0, 1000000);
+        getSettings().typeWideningThreshold = validateInt(typeWideningThreshold, 0, 1000000);
     }
 
     @Override
     public void reset() {
         bgTypePvdrEnabled.setSelected(getSettings().bgTypePvdrEnabled);
         removeUnusedImportsOnSaveEnabled.setSelected(getSettings().removeUnusedImportsOnSaveEnabled);
+        parallelResolutionEnabled.setSelected(getSettings().parallelResolutionEnabled);
         bgTypePvdrDepthLimit.setText(getSettings().bgTypePvdrDepthLimit.toString());
         bgTypePvdrTimeout.setText(getSettings().bgTypePvdrTimeout.toString());
         explicitDepthLimit.setText(getSettings().explicitDepthLimit.toString());
         implicitDepthLimit.setText(getSettings().implicitDepthLimit.toString());
         totalExpressionLimit.setText(getSettings().totalExpressionLimit.toString());
+        typeWideningThreshold.setText(getSettings().typeWideningThreshold.toString());
     }
 
     public void disposeUIResources() {
@@ -0,0 +1,114 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.impl.FieldReferenceImpl;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.deep_assoc_completion.resolvers.var_res.AssRes;
+import org.klesun.lang.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * "prop" -> offsets of `$this->prop = ...`, `$obj->prop['key'] = ...` and
+ * other assignments to a property with such name anywhere in the file, so
+ * that FieldRes did not have to collect every field reference in the file
+ * and check each of them to find few assignments
+ *
+ * keyed by name only, not by class, since assignment may be in a subclass or
+ * outside of any class - it is same set of references that PSI scan gives
+ */
+public class FieldAssignIndex extends FileBasedIndexExtension<String, L<Integer>>
+{
+    final public static ID<String, L<Integer>> NAME = ID.create("org.klesun.deep_assoc_completion.FieldAssignIndex");
+
+    @NotNull
+    @Override
+    public ID<String, L<Integer>> getName()
+    {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, L<Integer>, FileContent> getIndexer()
+    {
+        return inputData -> {
+            Map<String, L<Integer>> keyToOffsets = new HashMap<>();
+            PsiTreeUtil.findChildrenOfType(inputData.getPsiFile(), FieldReferenceImpl.class).forEach(ref -> {
+                String name = ref.getName();
+                if (name != null && AssRes.findParentAssignment(ref).has()) {
+                    if (!keyToOffsets.containsKey(name)) {
+                        keyToOffsets.put(name, L());
+                    }
+                    keyToOffsets.get(name).add(ref.getTextOffset());
+                }
+            });
+            return keyToOffsets;
+        };
+    }
+
+    @NotNull
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor()
+    {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<L<Integer>> getValueExternalizer()
+    {
+        return OffsetsExternalizer.INSTANCE;
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return 2;
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter()
+    {
+        return file -> file.getFileType() == PhpFileType.INSTANCE;
+    }
+
+    @Override
+    public boolean dependsOnFileContent()
+    {
+        return true;
+    }
+
+    /**
+     * @return non() if index is not available, so caller could fall back to PSI scan
+     */
+    public static Opt<It<FieldReferenceImpl>> findAssignedRefs(PsiFile file, String propName)
+    {
+        VirtualFile vFile = file.getVirtualFile();
+        if (vFile == null || DumbService.isDumb(file.getProject())) {
+            return non();
+        }
+        GlobalSearchScope scope = GlobalSearchScope.fileScope(file.getProject(), vFile);
+        L<Integer> offsets = L(FileBasedIndex.getInstance()
+            .getValues(NAME, propName, scope))
+            .fap(offs -> offs).arr();
+        return som(offsets.itr()
+            .fop(offset -> opt(file.findElementAt(offset)))
+            .fop(leaf -> opt(PsiTreeUtil.getParentOfType(leaf, FieldReferenceImpl.class, false)))
+            // index may be a bit behind the PSI in not yet committed documents
+            .flt(ref -> propName.equals(ref.getName())));
+    }
+}
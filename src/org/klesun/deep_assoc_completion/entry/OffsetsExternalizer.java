@@ -0,0 +1,35 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.util.io.DataExternalizer;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.lang.L;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static org.klesun.lang.Lang.L;
+
+/** value of indexes that point to PSI positions in the file */
+class OffsetsExternalizer implements DataExternalizer<L<Integer>>
+{
+    final static OffsetsExternalizer INSTANCE = new OffsetsExternalizer();
+
+    public void save(@NotNull DataOutput out, L<Integer> offsets) throws IOException
+    {
+        out.writeInt(offsets.size());
+        for (Integer offset: offsets) {
+            out.writeInt(offset);
+        }
+    }
+
+    public L<Integer> read(@NotNull DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        L<Integer> offsets = L();
+        for (int i = 0; i < size; ++i) {
+            offsets.add(in.readInt());
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,126 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.ui.MessageType;
+import com.intellij.openapi.ui.popup.Balloon;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.source.tree.LeafPsiElement;
+import com.intellij.ui.awt.RelativePoint;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.deep_assoc_completion.completion_providers.DeepKeysPvdr;
+import org.klesun.deep_assoc_completion.helpers.ExprCtx;
+import org.klesun.deep_assoc_completion.helpers.FuncCtx;
+import org.klesun.deep_assoc_completion.helpers.SearchContext;
+import org.klesun.lang.*;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * resolves expression at caret same way as ShowDocs, but with time recorded
+ * for each node of expression tree, and writes it in collapsed stack format
+ * (`frame;frame;frame selfMicroseconds` per line), that can be rendered by
+ * flamegraph.pl, speedscope or IDEA's own profiler "open snapshot"
+ */
+public class ProfileExprTree extends AnAction
+{
+    private static String formatFrame(ExprCtx node)
+    {
+        // ";" separates frames and last space separates the value in this format
+        return SearchContext.formatPsi(node.expr).replace(";", ",").replace(" ", "\u00A0");
+    }
+
+    /** nodes that only switch context of same expression do not get own frame */
+    private static boolean isCtxSwitch(ExprCtx node)
+    {
+        return node.parent != null && node.parent.expr == node.expr;
+    }
+
+    private static void collectStacks(ExprCtx node, String path, L<String> lines)
+    {
+        String nodePath = isCtxSwitch(node) ? path
+            : path.isEmpty() ? formatFrame(node) : path + ";" + formatFrame(node);
+        long selfUs = node.selfNs / 1000;
+        if (selfUs > 0 && !isCtxSwitch(node)) {
+            lines.add(nodePath + " " + selfUs);
+        }
+        node.children.fch(child -> collectStacks(child, nodePath, lines));
+    }
+
+    public static L<String> toCollapsedStacks(ExprCtx root)
+    {
+        L<String> lines = list();
+        collectStacks(root, "", lines);
+        return lines;
+    }
+
+    private static void collectNodes(ExprCtx node, L<ExprCtx> nodes)
+    {
+        nodes.add(node);
+        node.children.fch(child -> collectNodes(child, nodes));
+    }
+
+    private static String profile(PhpExpression expr) throws IOException
+    {
+        SearchContext search = new SearchContext(expr.getProject())
+            .setDepth(DeepKeysPvdr.getMaxDepth(false, expr.getProject()))
+            .setProfile(true);
+        ExprCtx root = new ExprCtx(new FuncCtx(search), expr, 0);
+        long startTime = System.nanoTime();
+        // export forces resolution of all keys, like in ShowDocs
+        DeepType.varExport(It(search.findExprType(expr, root)).arr());
+        double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File dir = new File(opt(expr.getProject().getBasePath()).def("."), "deep-assoc-bench");
+        dir.mkdirs();
+        File file = new File(dir, "flame-" + stamp + ".collapsed");
+        Files.write(file.toPath(), toCollapsedStacks(root), StandardCharsets.UTF_8);
+
+        L<ExprCtx> nodes = list();
+        collectNodes(root, nodes);
+        L<String> top = nodes.srt(n -> -n.selfNs).lmt(10)
+            .map(n -> String.format("%8.2f ms self %8.2f ms total  %s",
+                n.selfNs / 1000000.0, n.totalNs / 1000000.0, SearchContext.formatPsi(n.expr)))
+            .arr();
+        return "Resolved " + search.getExpressionsResolved() + " expressions in " + seconds + " s\n"
+            + search.getCacheStats() + "\n"
+            + "Collapsed stacks saved to " + file.getPath() + "\n\n"
+            + Tls.implode("\n", top);
+    }
+
+    @Override
+    public void actionPerformed(AnActionEvent e)
+    {
+        String report = opt(e.getData(LangDataKeys.PSI_FILE))
+            .fop(psiFile -> opt(e.getData(LangDataKeys.CARET))
+                .map(caret -> psiFile.findElementAt(caret.getOffset())))
+            .map(psi -> psi instanceof LeafPsiElement ? psi.getParent() : psi)
+            .fop(toCast(PhpExpression.class))
+            .map(expr -> {
+                try {
+                    return profile(expr);
+                } catch (IOException exc) {
+                    return "Failed to write collapsed stacks - " + exc.getMessage();
+                }
+            })
+            .def("Put caret on a php expression to profile its resolution");
+        System.out.println(report);
+        JBPopupFactory.getInstance()
+            .createHtmlTextBalloonBuilder("<pre>" + report + "</pre>", MessageType.INFO, null)
+            .setFadeoutTime(300 * 1000)
+            .createBalloon()
+            .show(RelativePoint.fromScreen(new Point(200, 200)), Balloon.Position.atRight);
+    }
+}
@@ -0,0 +1,298 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.ui.MessageType;
+import com.intellij.openapi.ui.popup.Balloon;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.Computable;
+import com.intellij.psi.PsiFile;
+import com.intellij.ui.awt.RelativePoint;
+import com.jetbrains.php.lang.psi.elements.Method;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.deep_assoc_completion.completion_providers.DeepKeysPvdr;
+import org.klesun.deep_assoc_completion.helpers.FuncCtx;
+import org.klesun.deep_assoc_completion.helpers.Mt;
+import org.klesun.deep_assoc_completion.helpers.SearchContext;
+import org.klesun.deep_assoc_completion.resolvers.ClosRes;
+import org.klesun.lang.*;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * same test cases as in RunTest, but instead of checking keys it records how much
+ * each case cost: expressions resolved, time, allocated bytes and peak search cache
+ *
+ * results are written as json lines to deep-assoc-bench/last.jsonl in the project
+ * dir and compared with deep-assoc-bench/baseline.jsonl if it exists, so that you
+ * could save baseline before a change and see which cases became slower after it
+ *
+ * it is an action like RunTest rather than a light fixture test: test cases are the
+ * PHP files of the plugin's tests project, that need PhpStorm with its indexes of
+ * that project, and the plugin has no test runtime of its own. measure() does not
+ * touch UI, so it can be called from a headless test as well once there is one
+ *
+ * search is configured like in RunTest, so the numbers matched real completion,
+ * but project-wide ResolvedTypeCache is bypassed, otherwise second run would measure
+ * cache lookups rather than resolution, and peak cache is counted per case
+ */
+public class ResolutionBench extends AnAction
+{
+    final private static String BENCH_DIR = "deep-assoc-bench";
+    // tolerance, since time and allocations are noisy
+    final private static double TIME_RATIO = 1.5;
+    final private static double TIME_ABS_MS = 5.0;
+    final private static double EXPR_RATIO = 1.1;
+    final private static int EXPR_ABS = 5;
+
+    public static class CaseStats
+    {
+        final public String caseId;
+        final public String kind;
+        final public double ms;
+        final public int expressions;
+        final public long allocBytes;
+        final public int peakCache;
+
+        public CaseStats(String caseId, String kind, double ms, int expressions, long allocBytes, int peakCache)
+        {
+            this.caseId = caseId;
+            this.kind = kind;
+            this.ms = ms;
+            this.expressions = expressions;
+            this.allocBytes = allocBytes;
+            this.peakCache = peakCache;
+        }
+
+        public String toJson()
+        {
+            return "{\"case\":\"" + caseId.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+                + ",\"kind\":\"" + kind + "\""
+                + ",\"ms\":" + String.format(java.util.Locale.US, "%.3f", ms)
+                + ",\"expressions\":" + expressions
+                + ",\"allocBytes\":" + allocBytes
+                + ",\"peakCache\":" + peakCache + "}";
+        }
+
+        /** only parses what toJson() produces */
+        public static Opt<CaseStats> fromJson(String line)
+        {
+            Map<String, String> fields = new LinkedHashMap<>();
+            Matcher matcher = Pattern.compile("\"(\\w+)\":(\"((?:[^\"\\\\]|\\\\.)*)\"|[-\\d.]+)").matcher(line);
+            while (matcher.find()) {
+                String value = matcher.group(3) != null
+                    ? matcher.group(3).replace("\\\"", "\"").replace("\\\\", "\\")
+                    : matcher.group(2);
+                fields.put(matcher.group(1), value);
+            }
+            try {
+                return opt(fields.get("case")).map(caseId -> new CaseStats(
+                    caseId, fields.getOrDefault("kind", ""),
+                    Double.parseDouble(fields.getOrDefault("ms", "0")),
+                    Integer.parseInt(fields.getOrDefault("expressions", "0")),
+                    Long.parseLong(fields.getOrDefault("allocBytes", "0")),
+                    Integer.parseInt(fields.getOrDefault("peakCache", "0"))
+                ));
+            } catch (NumberFormatException exc) {
+                return non();
+            }
+        }
+    }
+
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return 0;
+        }
+    }
+
+    /** pull keys of the actual value, since they are resolved lazily */
+    private static int touchKeys(It<DeepType> types, int depth)
+    {
+        if (depth <= 0) {
+            return 0;
+        }
+        return types.fap(t -> t.keys)
+            .map(k -> k.keyType.getNames().arr().size() + touchKeys(k.getTypes(), depth - 1))
+            .rdc((sum, cnt) -> sum + cnt, 0);
+    }
+
+    private static L<CaseStats> measureProvider(Method func, String kind)
+    {
+        L<CaseStats> result = list();
+        ClosRes.findFunctionReturns(func)
+            .map(ret -> ret.getArgument())
+            .fop(toCast(PhpExpression.class))
+            .fch(retVal -> {
+                SearchContext search = new SearchContext(retVal.getProject())
+                    .setDepth(DeepKeysPvdr.getMaxDepth(false, retVal.getProject()))
+                    .setUseIndexes(true)
+                    .setUseProjectCache(false);
+                Iterator<DeepType> cases = new FuncCtx(search).findExprType(retVal)
+                    .fap(t -> Mt.getKeySt(t, null))
+                    .iterator();
+                for (int i = 0; ; ++i) {
+                    long startNs = System.nanoTime();
+                    long startAlloc = getAllocatedBytes();
+                    int startExprs = search.getExpressionsResolved();
+                    search.resetPeakCacheSize();
+                    if (!cases.hasNext()) {
+                        break;
+                    }
+                    DeepType caseType = cases.next();
+                    touchKeys(It(caseType.keys).fap(k -> k.getTypes()), 3);
+                    result.add(new CaseStats(
+                        func.getFQN() + "#" + i, kind,
+                        (System.nanoTime() - startNs) / 1000000.0,
+                        search.getExpressionsResolved() - startExprs,
+                        getAllocatedBytes() - startAlloc,
+                        search.getPeakCacheSize()
+                    ));
+                }
+            });
+        return result;
+    }
+
+    public static L<CaseStats> measure(PsiFile anyFile)
+    {
+        It<CaseStats> partial = RunTest.findTestDataPvdrFuncs(anyFile).itr()
+            .fap(funcs -> funcs).fap(f -> measureProvider(f, "partial"));
+        It<CaseStats> exact = RunTest.findExactKeysTestDataPvdrFuncs(anyFile).itr()
+            .fap(funcs -> funcs).fap(f -> measureProvider(f, "exact"));
+        return It.cnc(partial, exact).arr();
+    }
+
+    private static boolean isRegression(CaseStats old, CaseStats now)
+    {
+        return now.expressions > old.expressions * EXPR_RATIO + EXPR_ABS
+            || now.ms > old.ms * TIME_RATIO + TIME_ABS_MS;
+    }
+
+    public static L<String> compare(L<CaseStats> baseline, L<CaseStats> current)
+    {
+        Map<String, CaseStats> idToOld = new LinkedHashMap<>();
+        baseline.fch(c -> idToOld.put(c.caseId, c));
+        return current
+            .fop(now -> opt(idToOld.get(now.caseId))
+                .flt(old -> isRegression(old, now))
+                .map(old -> now.caseId + ": " + old.expressions + " -> " + now.expressions + " expressions, "
+                    + String.format("%.1f -> %.1f ms", old.ms, now.ms)))
+            .arr();
+    }
+
+    private static L<CaseStats> readStats(File file) throws IOException
+    {
+        return L(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+            .fop(line -> CaseStats.fromJson(line))
+            .arr();
+    }
+
+    private static void writeStats(File file, L<CaseStats> stats) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), stats.map(s -> s.toJson()).arr(), StandardCharsets.UTF_8);
+    }
+
+    /** whether results should be saved as new baseline rather than compared with it */
+    protected boolean isBaselineMode()
+    {
+        return false;
+    }
+
+    private String run(PsiFile file) throws IOException
+    {
+        File dir = new File(opt(file.getProject().getBasePath()).def("."), BENCH_DIR);
+        L<CaseStats> stats = measure(file);
+        String totals = "Measured " + stats.size() + " cases: "
+            + stats.rdc((sum, s) -> sum + s.expressions, 0) + " expressions in "
+            + String.format("%.1f", stats.rdc((sum, s) -> sum + s.ms, 0.0)) + " ms, "
+            + stats.rdc((sum, s) -> sum + s.allocBytes, 0L) / 1024 / 1024 + " MiB allocated\n";
+
+        writeStats(new File(dir, "last.jsonl"), stats);
+        File baselineFile = new File(dir, "baseline.jsonl");
+        if (isBaselineMode()) {
+            writeStats(baselineFile, stats);
+            return totals + "Saved as baseline to " + baselineFile.getPath();
+        } else if (!baselineFile.exists()) {
+            return totals + "No baseline at " + baselineFile.getPath() + " to compare with";
+        } else {
+            L<String> regressions = compare(readStats(baselineFile), stats);
+            return totals + regressions.size() + " regressions compared to baseline\n"
+                + Tls.implode("\n", regressions);
+        }
+    }
+
+    private static void showReport(String report)
+    {
+        System.out.println(report);
+        JBPopupFactory.getInstance()
+            .createHtmlTextBalloonBuilder("<pre>" + report + "</pre>", MessageType.INFO, null)
+            .setFadeoutTime(300 * 1000)
+            .createBalloon()
+            .show(RelativePoint.fromScreen(new Point(200, 200)), Balloon.Position.atRight);
+    }
+
+    /** may take minutes, so it is run in background with a cancel button rather than freezing the UI */
+    @Override
+    public void actionPerformed(AnActionEvent e)
+    {
+        PsiFile file = e.getData(LangDataKeys.PSI_FILE);
+        if (file == null) {
+            showReport("No file opened - it is needed to find the project with test cases");
+            return;
+        }
+        ProgressManager.getInstance().run(new Task.Backgroundable(file.getProject(), "Measuring deep-assoc resolution", true) {
+            private String report = "Benchmark was canceled";
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator)
+            {
+                report = ApplicationManager.getApplication().runReadAction((Computable<String>)() -> {
+                    try {
+                        return ResolutionBench.this.run(file);
+                    } catch (IOException exc) {
+                        return "Failed to write benchmark results - " + exc.getMessage();
+                    }
+                });
+            }
+
+            @Override
+            public void onSuccess()
+            {
+                showReport(report);
+            }
+        });
+    }
+
+    public static class SaveBaseline extends ResolutionBench
+    {
+        @Override
+        protected boolean isBaselineMode()
+        {
+            return true;
+        }
+    }
+}
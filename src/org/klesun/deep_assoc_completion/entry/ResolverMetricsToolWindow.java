@@ -0,0 +1,76 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.deep_assoc_completion.helpers.ResolverMetrics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.klesun.lang.Lang.*;
+
+/** shows ResolverMetrics table, recording is started with the checkbox */
+public class ResolverMetricsToolWindow implements ToolWindowFactory
+{
+    private static File dump(Project project) throws IOException
+    {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File dir = new File(opt(project.getBasePath()).def("."), "deep-assoc-bench");
+        dir.mkdirs();
+        File file = new File(dir, "resolver-metrics-" + stamp + ".txt");
+        Files.write(file.toPath(), ResolverMetrics.format().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow)
+    {
+        JTextArea table = new JTextArea();
+        table.setEditable(false);
+        table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, table.getFont().getSize()));
+        Runnable refresh = () -> table.setText(ResolverMetrics.format());
+
+        JCheckBox record = new JCheckBox("Record", ResolverMetrics.isEnabled());
+        record.addActionListener(e -> ResolverMetrics.setEnabled(record.isSelected()));
+        JButton refreshBtn = new JButton("Refresh");
+        refreshBtn.addActionListener(e -> refresh.run());
+        JButton resetBtn = new JButton("Reset");
+        resetBtn.addActionListener(e -> {
+            ResolverMetrics.reset();
+            refresh.run();
+        });
+        JButton dumpBtn = new JButton("Dump to File");
+        dumpBtn.addActionListener(e -> {
+            try {
+                table.setText(ResolverMetrics.format() + "\n\nSaved to " + dump(project).getPath());
+            } catch (IOException exc) {
+                table.setText("Failed to dump metrics - " + exc.getMessage());
+            }
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(record);
+        buttons.add(refreshBtn);
+        buttons.add(resetBtn);
+        buttons.add(dumpBtn);
+
+        JPanel root = new JPanel(new BorderLayout());
+        root.add(buttons, BorderLayout.NORTH);
+        root.add(new JBScrollPane(table), BorderLayout.CENTER);
+        refresh.run();
+
+        Content content = ContentFactory.SERVICE.getInstance().createContent(root, "", false);
+        toolWindow.getContentManager().addContent(content);
+    }
+}
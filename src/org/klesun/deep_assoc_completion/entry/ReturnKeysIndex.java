@@ -0,0 +1,427 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.source.PsiFileImpl;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.*;
+import com.jetbrains.php.lang.psi.elements.impl.PhpReturnImpl;
+import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.deep_assoc_completion.helpers.IExprCtx;
+import org.klesun.deep_assoc_completion.helpers.Mt;
+import org.klesun.deep_assoc_completion.resolvers.ClosRes;
+import org.klesun.deep_assoc_completion.resolvers.MethCallRes;
+import org.klesun.lang.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * function/method FQN -> literal keys of arrays it returns and FQNs of
+ * functions whose result it returns as is, built during indexing, so that
+ * completion of `$this->getConfig()['` did not load AST of the file where
+ * getConfig() is defined just to list the key names
+ *
+ * only shapes that do not depend on args are complete: each return is either
+ * an array literal with literal keys, either a call of a self:: method or a
+ * function with such shape. Anything else falls back to PSI resolution
+ */
+public class ReturnKeysIndex extends FileBasedIndexExtension<String, ReturnKeysIndex.Shape>
+{
+    final public static ID<String, Shape> NAME = ID.create("org.klesun.deep_assoc_completion.ReturnKeysIndex");
+    final private static int MAX_FORWARD_DEPTH = 5;
+
+    /** a literal key of returned array, with what is known about its value without resolution */
+    public static class IndexedKey
+    {
+        final public String name;
+        // "" when value is not a literal
+        final public String briefType;
+        // string or number literal value, null if there is none
+        final public String value;
+        // offset of the key in the file, for Go To Definition
+        final public int offset;
+
+        IndexedKey(String name, String briefType, String value, int offset)
+        {
+            this.name = name;
+            this.briefType = briefType;
+            this.value = value;
+            this.offset = offset;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hash(name, briefType, value, offset);
+        }
+
+        public boolean equals(Object thatRaw)
+        {
+            return Tls.cast(IndexedKey.class, thatRaw)
+                .any(that -> that.name.equals(this.name)
+                    && that.briefType.equals(this.briefType)
+                    && Objects.equals(that.value, this.value)
+                    && that.offset == this.offset);
+        }
+    }
+
+    public static class Shape
+    {
+        final public boolean isComplete;
+        final public L<IndexedKey> keys;
+        final public L<String> forwards;
+
+        Shape(boolean isComplete, L<IndexedKey> keys, L<String> forwards)
+        {
+            this.isComplete = isComplete;
+            this.keys = keys;
+            this.forwards = forwards;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hash(isComplete, keys, forwards);
+        }
+
+        public boolean equals(Object thatRaw)
+        {
+            return Tls.cast(Shape.class, thatRaw)
+                .any(that -> that.isComplete == this.isComplete
+                    && that.keys.equals(this.keys)
+                    && that.forwards.equals(this.forwards));
+        }
+    }
+
+    private static Opt<String> getLiteralKey(ArrayHashElement hashEl)
+    {
+        return opt(hashEl.getKey()).fop(key -> Opt.fst(
+            () -> Tls.cast(StringLiteralExpression.class, key)
+                .map(lit -> lit.getContents()),
+            () -> opt(key.getText()).flt(txt -> Tls.isNum(txt))
+        ));
+    }
+
+    /** only what is seen from the literal itself - index must not depend on other files */
+    private static T2<String, String> getBriefValue(@Nullable PsiElement value)
+    {
+        String text = opt(value).map(v -> v.getText()).def("");
+        if (value instanceof StringLiteralExpression) {
+            return T2("\\string", ((StringLiteralExpression)value).getContents());
+        } else if (Tls.isNum(text)) {
+            return T2(text.contains(".") ? "\\float" : "\\int", text);
+        } else if (value instanceof ArrayCreationExpression) {
+            return T2("\\array", null);
+        } else if (value instanceof ConstantReference) {
+            String lower = text.toLowerCase();
+            return lower.equals("true") || lower.equals("false") ? T2("\\bool", null)
+                : lower.equals("null") ? T2("\\null", null)
+                : T2("", null);
+        } else {
+            return T2("", null);
+        }
+    }
+
+    private static Opt<IndexedKey> makeIndexedKey(ArrayHashElement hashEl)
+    {
+        return getLiteralKey(hashEl).map(name -> {
+            T2<String, String> brief = getBriefValue(hashEl.getValue());
+            int offset = opt(hashEl.getKey()).map(k -> k.getTextOffset()).def(hashEl.getTextOffset());
+            return new IndexedKey(name, brief.a, brief.b, offset);
+        });
+    }
+
+    /** FQN of the called function if its result does not depend on the object */
+    private static Opt<String> getForwardFqn(PhpExpression value, Function func)
+    {
+        return Opt.fst(
+            () -> Tls.cast(MethodReference.class, value)
+                .flt(call -> opt(call.getClassReference()).any(ref -> ref.getText().equals("self")))
+                .fop(call -> Tls.cast(Method.class, func)
+                    .fop(meth -> opt(meth.getContainingClass()))
+                    .map(cls -> cls.getFQN() + "." + call.getName())),
+            () -> Tls.cast(FunctionReference.class, value)
+                .flt(call -> !(call instanceof MethodReference))
+                .fop(call -> opt(call.getFQN()))
+        );
+    }
+
+    /** PSI in the doc that would give more types than the function body */
+    private static boolean hasReturnDoc(Function func)
+    {
+        return opt(func.getDocComment())
+            .fop(doc -> opt(doc.getReturnTag()))
+            .any(tag -> MethCallRes.getReturnDocExpr(tag).has());
+    }
+
+    private static Shape makeShape(Function func)
+    {
+        L<PhpReturnImpl> returns = ClosRes.findFunctionReturns(func);
+        boolean isComplete = returns.size() > 0
+            && ClosRes.findFunctionYields(func).size() == 0
+            && !hasReturnDoc(func)
+            && !Tls.cast(Method.class, func).any(m -> m.isAbstract());
+        Set<IndexedKey> keys = new LinkedHashSet<>();
+        Set<String> forwards = new LinkedHashSet<>();
+        for (PhpReturnImpl ret: returns) {
+            Opt<PhpExpression> value = opt(ret.getArgument()).fop(toCast(PhpExpression.class));
+            Opt<ArrayCreationExpression> arrOpt = value.fop(toCast(ArrayCreationExpression.class));
+            Opt<String> forward = value.fop(v -> getForwardFqn(v, func));
+            if (arrOpt.has()) {
+                ArrayCreationExpression arr = arrOpt.unw();
+                L<ArrayHashElement> hashEls = L(arr.getHashElements());
+                // indexed elements may form a callable - keep such arrays to ArrCtorRes
+                boolean onlyHash = It(arr.getChildren()).all((psi, i) -> psi instanceof ArrayHashElement);
+                L<IndexedKey> literalKeys = hashEls.fop(el -> makeIndexedKey(el)).arr();
+                isComplete &= onlyHash && literalKeys.size() == hashEls.size();
+                keys.addAll(literalKeys);
+            } else if (forward.has()) {
+                forwards.add(forward.unw());
+            } else {
+                isComplete = false;
+            }
+        }
+        return new Shape(isComplete, L(keys), L(forwards));
+    }
+
+    @NotNull
+    @Override
+    public ID<String, Shape> getName()
+    {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, Shape, FileContent> getIndexer()
+    {
+        return inputData -> {
+            Map<String, Shape> fqnToShape = new HashMap<>();
+            PsiTreeUtil.findChildrenOfType(inputData.getPsiFile(), Function.class).forEach(func -> {
+                if (func.isClosure()) {
+                    return;
+                }
+                // like `if (!function_exists('f')) function f() {...}` in two
+                // branches - we can't tell which one is used, so shape is unknown
+                Shape shape = fqnToShape.containsKey(func.getFQN())
+                    ? new Shape(false, L(), L())
+                    : makeShape(func);
+                fqnToShape.put(func.getFQN(), shape);
+            });
+            return fqnToShape;
+        };
+    }
+
+    @NotNull
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor()
+    {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    private static void writeKeys(DataOutput out, L<IndexedKey> keys) throws IOException
+    {
+        out.writeInt(keys.size());
+        for (IndexedKey key: keys) {
+            out.writeUTF(key.name);
+            out.writeUTF(key.briefType);
+            out.writeBoolean(key.value != null);
+            out.writeUTF(opt(key.value).def(""));
+            out.writeInt(key.offset);
+        }
+    }
+
+    private static L<IndexedKey> readKeys(DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        L<IndexedKey> keys = L();
+        for (int i = 0; i < size; ++i) {
+            String name = in.readUTF();
+            String briefType = in.readUTF();
+            boolean hasValue = in.readBoolean();
+            String value = in.readUTF();
+            int offset = in.readInt();
+            keys.add(new IndexedKey(name, briefType, hasValue ? value : null, offset));
+        }
+        return keys;
+    }
+
+    private static void writeList(DataOutput out, L<String> values) throws IOException
+    {
+        out.writeInt(values.size());
+        for (String value: values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static L<String> readList(DataInput in) throws IOException
+    {
+        int size = in.readInt();
+        L<String> values = L();
+        for (int i = 0; i < size; ++i) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<Shape> getValueExternalizer()
+    {
+        return new DataExternalizer<Shape>() {
+            public void save(@NotNull DataOutput out, Shape shape) throws IOException {
+                out.writeBoolean(shape.isComplete);
+                writeKeys(out, shape.keys);
+                writeList(out, shape.forwards);
+            }
+            public Shape read(@NotNull DataInput in) throws IOException {
+                boolean isComplete = in.readBoolean();
+                L<IndexedKey> keys = readKeys(in);
+                L<String> forwards = readList(in);
+                return new Shape(isComplete, keys, forwards);
+            }
+        };
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return 2;
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter()
+    {
+        return file -> file.getFileType() == PhpFileType.INSTANCE;
+    }
+
+    @Override
+    public boolean dependsOnFileContent()
+    {
+        return true;
+    }
+
+    /** same FQN defined in several files is treated as unknown shape */
+    private static Opt<Shape> getShape(String fqn, Project project)
+    {
+        L<Shape> shapes = L(FileBasedIndex.getInstance()
+            .getValues(NAME, fqn, GlobalSearchScope.allScope(project)));
+        return shapes.size() == 1 ? som(shapes.get(0)) : non();
+    }
+
+    /** @return keys of all returned arrays, with FQN of the function each key is defined in */
+    private static Opt<L<T2<String, IndexedKey>>> collectKeys(String fqn, Project project, Set<String> visited, int depth)
+    {
+        if (depth > MAX_FORWARD_DEPTH || !visited.add(fqn)) {
+            return non();
+        }
+        // unqualified function call in a namespace falls back to the global function
+        String globalFqn = "\\" + L(fqn.split("\\\\")).lst().def("");
+        return getShape(fqn, project).map(shape -> T2(fqn, shape))
+            .elf(() -> fqn.contains(".") ? non() : getShape(globalFqn, project).map(shape -> T2(globalFqn, shape)))
+            .flt(tup -> tup.b.isComplete)
+            .fop(tup -> {
+                L<T2<String, IndexedKey>> keys = tup.b.keys.map(k -> T2(tup.a, k)).arr();
+                for (String forward: tup.b.forwards) {
+                    Opt<L<T2<String, IndexedKey>>> forwarded = collectKeys(forward, project, visited, depth + 1);
+                    if (!forwarded.has()) {
+                        return non();
+                    }
+                    keys.addAll(forwarded.unw());
+                }
+                return som(keys);
+            });
+    }
+
+    /** @return keys if all returns of the function are arrays with literal keys */
+    private static Opt<L<T2<String, IndexedKey>>> getReturnedKeys(Function func)
+    {
+        Project project = func.getProject();
+        if (DumbService.isDumb(project)) {
+            return non();
+        }
+        return collectKeys(func.getFQN(), project, new HashSet<>(), 0);
+    }
+
+    /**
+     * key names are taken from the index, while their values are resolved
+     * from PSI only when someone asks for them, with the context of the call
+     */
+    public static It<DeepType> resolveReturns(Function func, IExprCtx ctx, S<It<DeepType>> resolvePsi)
+    {
+        return ctx.isUseIndexes()
+            ? getReturnedKeys(func).uni(
+                keys -> It(som(makeIndexedType(func, keys, resolvePsi))),
+                () -> resolvePsi.get())
+            : resolvePsi.get();
+    }
+
+    /**
+     * the key literal if AST of the file is loaded anyway, otherwise the
+     * function itself, since loading AST is what the index is meant to spare
+     */
+    private static PsiElement getKeyDefinition(Function func, String ownerFqn, IndexedKey key)
+    {
+        return opt(func.getContainingFile())
+            .flt(file -> ownerFqn.equals(func.getFQN()))
+            .fop(toCast(PsiFileImpl.class))
+            .flt(file -> file.getTreeElement() != null)
+            .fop(file -> opt(file.findElementAt(key.offset)))
+            .fop(leaf -> opt(leaf.getParent()))
+            .def(func);
+    }
+
+    private static PhpType makeBriefType(L<IndexedKey> keys)
+    {
+        PhpType briefType = new PhpType();
+        keys.fch(k -> briefType.add(k.briefType.equals("") ? PhpType.MIXED : new PhpType().add(k.briefType)));
+        return briefType;
+    }
+
+    /**
+     * values that are string or number literals are taken from the index as
+     * well, so that the popup could show them without loading the PSI
+     */
+    private static DeepType makeIndexedType(Function func, L<T2<String, IndexedKey>> keys, S<It<DeepType>> resolvePsi)
+    {
+        DeepType type = new DeepType(func, PhpType.ARRAY);
+        type.isIndexed = true;
+        S<MemoizingIterable<DeepType>> psiTypes = Tls.onDemand(() -> resolvePsi.get().mem());
+        Map<String, L<T2<String, IndexedKey>>> nameToKeys = new LinkedHashMap<>();
+        keys.fch(tup -> {
+            if (!nameToKeys.containsKey(tup.b.name)) {
+                nameToKeys.put(tup.b.name, L());
+            }
+            nameToKeys.get(tup.b.name).add(tup);
+        });
+        nameToKeys.forEach((name, sources) -> {
+            PsiElement definition = getKeyDefinition(func, sources.get(0).a, sources.get(0).b);
+            L<IndexedKey> indexed = sources.map(tup -> tup.b).arr();
+            PhpType briefType = makeBriefType(indexed);
+            boolean allLiteral = indexed.all((k, i) -> k.value != null);
+            S<Mt> getValue = allLiteral
+                ? () -> new Mt(indexed.map(k -> {
+                    DeepType valt = new DeepType(definition, new PhpType().add(k.briefType), k.value);
+                    valt.isNumber = !k.briefType.equals("\\string");
+                    return valt;
+                }))
+                : () -> new Mt(psiTypes.get().fap(t -> Mt.getKeySt(t, name)));
+            type.addKey(name, definition).addType(getValue, briefType);
+        });
+        return type;
+    }
+}
@@ -33,7 +33,7 @@ import static org.klesun.lang.Lang.*;
 
 public class RunTest extends AnAction
 {
-    private static Opt<It<Method>> findTestDataPvdrFuncs(PsiFile psiFile)
+    static Opt<It<Method>> findTestDataPvdrFuncs(PsiFile psiFile)
     {
         It<Method> meths = It(PhpIndex.getInstance(psiFile.getProject()).getClassesByName("UnitTest"))
             .fap(cls -> cls.getMethods())
@@ -42,7 +42,7 @@ public class RunTest extends AnAction
         return meths.has() ? opt(meths) : opt(null);
     }
 
-    private static Opt<It<Method>> findExactKeysTestDataPvdrFuncs(PsiFile psiFile)
+    static Opt<It<Method>> findExactKeysTestDataPvdrFuncs(PsiFile psiFile)
     {
         It<Method> meths = It(PhpIndex.getInstance(psiFile.getProject()).getClassesByName("ExactKeysUnitTest"))
             .fap(cls -> cls.getMethods())
@@ -57,8 +57,10 @@ public class RunTest extends AnAction
             .map(ret -> ret.getArgument())
             .fop(toCast(PhpExpression.class))
             .fap(retVal -> {
+                // same as in completion, so that ReturnKeysIndex was covered as well
                 SearchContext search = new SearchContext(retVal.getProject())
-                    .setDepth(DeepKeysPvdr.getMaxDepth(false, retVal.getProject()));
+                    .setDepth(DeepKeysPvdr.getMaxDepth(false, retVal.getProject()))
+                    .setUseIndexes(true);
                 FuncCtx funcCtx = new FuncCtx(search);
                 return funcCtx.findExprType(retVal);
             })
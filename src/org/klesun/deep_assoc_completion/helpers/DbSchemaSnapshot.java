@@ -0,0 +1,128 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import com.intellij.database.model.DasObject;
+import com.intellij.database.model.ObjectKind;
+import com.intellij.database.psi.DbPsiFacade;
+import com.intellij.openapi.components.*;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.Nullable;
+import org.klesun.lang.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * table name -> column names of all tables in all connected data sources, so
+ * that each `SELECT *` in a PDO query did not walk through the whole catalog
+ *
+ * built on first request, dropped when any data source changes and rebuilt
+ * on next request. Saved to workspace file, so that it was available before
+ * data sources finish loading on IDE start
+ *
+ * an empty build is not kept, since data sources may be just not loaded yet,
+ * and a table missing in the restored snapshot is looked up again once they are
+ */
+@State(
+    name = "DeepAssocCompletionDbSchema",
+    storages = {
+        @Storage(StoragePathMacros.WORKSPACE_FILE),
+    }
+)
+public class DbSchemaSnapshot extends Lang implements PersistentStateComponent<DbSchemaSnapshot.State>
+{
+    final private Project project;
+    private Map<String, L<String>> tableToColumns = null;
+    // false if snapshot was restored from workspace file, not built from data sources
+    private boolean isLive = false;
+
+    /** columns are joined with comma, since xml serializer does not support nested lists */
+    public static class State
+    {
+        public Map<String, String> tableToColumns = new LinkedHashMap<>();
+    }
+
+    public DbSchemaSnapshot(Project project)
+    {
+        this.project = project;
+        project.getMessageBus().connect(project)
+            .subscribe(DbPsiFacade.TOPIC, dataSource -> invalidate());
+    }
+
+    public static DbSchemaSnapshot inst(Project project)
+    {
+        return ServiceManager.getService(project, DbSchemaSnapshot.class);
+    }
+
+    private static It<DasObject> getDasChildren(DasObject parent, ObjectKind kind)
+    {
+        return It(parent.getDbChildren(DasObject.class, kind));
+    }
+
+    private Map<String, L<String>> build()
+    {
+        Map<String, L<String>> result = new LinkedHashMap<>();
+        It(DbPsiFacade.getInstance(project).getDataSources())
+            .fap(src -> src.getModel().getModelRoots())
+            .fap(root -> getDasChildren(root, ObjectKind.TABLE))
+            .fch(tab -> {
+                if (!result.containsKey(tab.getName())) {
+                    result.put(tab.getName(), L());
+                }
+                getDasChildren(tab, ObjectKind.COLUMN)
+                    .fch(col -> result.get(tab.getName()).add(col.getName()));
+            });
+        return result;
+    }
+
+    public synchronized void invalidate()
+    {
+        tableToColumns = null;
+        isLive = false;
+    }
+
+    private boolean hasDataSources()
+    {
+        return DbPsiFacade.getInstance(project).getDataSources().size() > 0;
+    }
+
+    /** @return columns of all tables with such name in all data sources */
+    public synchronized L<String> getColumns(String table)
+    {
+        boolean isStale = tableToColumns != null && !isLive
+            && !tableToColumns.containsKey(table) && hasDataSources();
+        if (tableToColumns == null || isStale) {
+            // restored snapshot may be from the time this table did not exist
+            Map<String, L<String>> built = build();
+            tableToColumns = built.isEmpty() ? null : built;
+            isLive = !built.isEmpty();
+            return opt(built.get(table)).map(cols -> L(new ArrayList<>(cols))).def(L());
+        }
+        // a copy, since caller may add to the list
+        return opt(tableToColumns.get(table)).map(cols -> L(new ArrayList<>(cols))).def(L());
+    }
+
+    /** invalidated snapshot is not saved, so that stale columns did not survive restart */
+    @Nullable
+    @Override
+    public synchronized State getState()
+    {
+        State state = new State();
+        if (tableToColumns != null) {
+            tableToColumns.forEach((table, cols) ->
+                state.tableToColumns.put(table, Tls.implode(",", cols)));
+        }
+        return state;
+    }
+
+    @Override
+    public synchronized void loadState(State state)
+    {
+        Map<String, L<String>> loaded = new LinkedHashMap<>();
+        state.tableToColumns.forEach((table, cols) -> loaded.put(table,
+            cols.isEmpty() ? L() : L(cols.split(",", -1))));
+        // same as with build() - empty snapshot would stop us from asking data sources
+        tableToColumns = loaded.isEmpty() ? null : loaded;
+        isLive = false;
+    }
+}
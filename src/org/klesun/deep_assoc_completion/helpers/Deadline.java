@@ -0,0 +1,33 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+/**
+ * a point in time after which search should stop and return what it found so far
+ *
+ * based on System.nanoTime(), so it is not affected by system clock changes,
+ * and cheap enough to be checked on every iterator pull, not just on every expression
+ */
+public class Deadline
+{
+    final private long endNs;
+
+    private Deadline(long endNs)
+    {
+        this.endNs = endNs;
+    }
+
+    public static Deadline fromNow(double seconds)
+    {
+        return new Deadline(System.nanoTime() + (long)(seconds * 1000000000L));
+    }
+
+    public static Deadline fromNowMs(long milliseconds)
+    {
+        return new Deadline(System.nanoTime() + milliseconds * 1000000L);
+    }
+
+    public boolean isOver()
+    {
+        // subtraction rather than comparison, since nanoTime() may overflow
+        return System.nanoTime() - endNs > 0;
+    }
+}
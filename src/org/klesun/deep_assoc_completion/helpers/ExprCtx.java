@@ -23,16 +23,38 @@ import static org.klesun.lang.Lang.*;
  * I'm going to use this to keep record of _expression tree_ for depth limits and debug
  */
 public class ExprCtx implements IExprCtx {
+    // for rolling hash of the expression trace
+    final private static long TRACE_HASH_BASE = 1000003;
+
     final public int depth;
     final private FuncCtx funcCtx;
     final public PsiElement expr;
     final public L<ExprCtx> children = list();
     public Opt<Integer> typeCnt = non();
-
-    public ExprCtx(FuncCtx funcCtx, PsiElement expr, int depth) {
+    final public @Nullable ExprCtx parent;
+    // closest ancestor that was created to resolve an expression, not to change context
+    final private @Nullable ExprCtx traceParent;
+    final private int traceLength;
+    final private long traceHash;
+    // filled only when search is profiled, see SearchContext.setProfile()
+    public long selfNs = 0;
+    public long totalNs = 0;
+
+    private ExprCtx(FuncCtx funcCtx, PsiElement expr, int depth, @Nullable ExprCtx parent, @Nullable ExprCtx traceParent) {
         this.funcCtx = funcCtx;
         this.expr = expr;
         this.depth = depth;
+        this.parent = parent;
+        this.traceParent = traceParent;
+        this.traceLength = traceParent == null ? 1 : traceParent.traceLength + 1;
+        // func ctx is part of the step, so that a function walking
+        // a tree with different args was not taken for a recursion
+        this.traceHash = (traceParent == null ? 0 : traceParent.traceHash * TRACE_HASH_BASE)
+            + 31L * System.identityHashCode(expr) + funcCtx.hashCode();
+    }
+
+    public ExprCtx(FuncCtx funcCtx, PsiElement expr, int depth) {
+        this(funcCtx, expr, depth, null, null);
     }
 
     public IFuncCtx func() {
@@ -40,11 +62,71 @@ public class ExprCtx implements IExprCtx {
     }
 
     private ExprCtx subExpr(PsiElement expr, FuncCtx funcCtx) {
-        ExprCtx nextCtx = new ExprCtx(funcCtx, expr, depth + 1);
-        children.add(nextCtx);
+        // context switch - does not go into the trace, same expression is kept
+        ExprCtx nextCtx = new ExprCtx(funcCtx, expr, depth + 1, this, traceParent);
+        synchronized (children) {
+            children.add(nextCtx);
+        }
         return nextCtx;
     }
 
+    private ExprCtx subResolution(PhpExpression expr) {
+        ExprCtx nextCtx = new ExprCtx(funcCtx, expr, depth + 1, this, this);
+        synchronized (children) {
+            children.add(nextCtx);
+        }
+        return nextCtx;
+    }
+
+    /**
+     * imagine sequence: a b c d e f g e f g
+     *                           ^_____^_____
+     * I'm not sure this assumption is right, but I'll try to
+     * treat any case where end repeats pre-end as recursion
+     *
+     * trace hashes are updated in constructor, so we only walk up to the
+     * previous occurrence of this step and compare two hashes, elements
+     * are compared one by one only when hashes match
+     */
+    public boolean isRecursion() {
+        ExprCtx prev = traceParent;
+        long pow = TRACE_HASH_BASE;
+        while (prev != null && !isSameStep(prev)) {
+            prev = prev.traceParent;
+            pow *= TRACE_HASH_BASE;
+        }
+        if (prev == null) {
+            return false;
+        }
+        int period = traceLength - prev.traceLength;
+        if (prev.traceLength < period) {
+            return false;
+        }
+        ExprCtx prePrev = prev;
+        for (int i = 0; i < period; ++i) {
+            prePrev = prePrev.traceParent;
+        }
+        long endHash = traceHash - prev.traceHash * pow;
+        long preEndHash = prev.traceHash - (prePrev == null ? 0 : prePrev.traceHash * pow);
+        if (endHash != preEndHash) {
+            return false;
+        }
+        ExprCtx end = this;
+        ExprCtx preEnd = prev;
+        for (int i = 0; i < period; ++i) {
+            if (!end.isSameStep(preEnd)) {
+                return false;
+            }
+            end = end.traceParent;
+            preEnd = preEnd.traceParent;
+        }
+        return true;
+    }
+
+    private boolean isSameStep(ExprCtx other) {
+        return expr == other.expr && funcCtx.equals(other.funcCtx);
+    }
+
     public ExprCtx subCtxEmpty() {
         return subExpr(expr, funcCtx.subCtxEmpty());
     }
@@ -55,6 +137,20 @@ public class ExprCtx implements IExprCtx {
         return subExpr(expr, funcSubCtx);
     }
 
+    /**
+     * context that does not know anything about the caller except the call
+     * stack length - for expressions that do not depend on args/$this, so
+     * result was shared among all calls and cached in the root context of the search
+     */
+    public ExprCtx subCtxRoot() {
+        return subExpr(expr, funcCtx.subCtxRoot());
+    }
+
+    /** root of a ParallelRes fork - new search, but same depth and call stack length */
+    ExprCtx subCtxFork(SearchContext fork, PhpExpression expr) {
+        return new ExprCtx(funcCtx.subCtxFork(fork), expr, depth + 1);
+    }
+
     public ExprCtx subCtxDirect(FunctionReference funcCall) {
         return subExpr(expr, funcCtx.subCtxDirect(funcCall, this::findExprType));
     }
@@ -96,12 +192,22 @@ public class ExprCtx implements IExprCtx {
     }
 
     public It<DeepType> findExprType(PhpExpression expr) {
-        return It(funcCtx.getSearch().findExprType(expr, subExpr(expr, funcCtx)));
+        return It(funcCtx.getSearch().findExprType(expr, subResolution(expr)));
+    }
+
+    public It<DeepType> findExprTypes(L<PhpExpression> exprs) {
+        return new ParallelRes(this, funcCtx.getSearch()).findExprTypes(exprs);
+    }
+
+    public boolean isUseIndexes() {
+        return funcCtx.getSearch().isUseIndexes();
     }
 
     public It<DeepType> limitResolve(int limit, PhpExpression expr) {
         int oldDepth = funcCtx.getSearch().depthLeft;
-        SearchContext keySearch = new SearchContext(funcCtx.getSearch().project.def(null));
+        SearchContext keySearch = new SearchContext(funcCtx.getSearch().project.def(null))
+            .shareCancellation(funcCtx.getSearch())
+            .setUseIndexes(funcCtx.getSearch().isUseIndexes());
         keySearch.setDepth(Math.min(oldDepth, limit));
         keySearch.overrideMaxExpr = som(Math.min(funcCtx.getSearch().getMaxExpressions() - funcCtx.getSearch().getExpressionsResolved() - 1, limit));
         return It(keySearch.findExprType(expr, subExpr(expr, new FuncCtx(keySearch))));
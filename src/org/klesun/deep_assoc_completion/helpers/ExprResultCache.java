@@ -0,0 +1,202 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.deep_assoc_completion.DeepTypeResolver;
+import org.klesun.lang.*;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * results of expressions resolved during a single search, bounded by
+ * estimated retained size, since on depth 40 a search could keep hundreds
+ * of megabytes of types that nobody is going to ask for again
+ *
+ * entries are evicted in LRU order, literals first since they are resolved
+ * in one step anyway, function and method calls last, since they are the
+ * most expensive to re-resolve. Weight is only an estimate based on the
+ * number of types retrieved so far - results are lazy, so it grows with time
+ *
+ * synchronized, since lazy results may be pulled from other threads
+ */
+public class ExprResultCache extends Lang
+{
+    final private static long MAX_WEIGHT = 48L * 1024 * 1024;
+    // evict a bit more than needed so that we did not re-weigh on each put
+    final private static long TARGET_WEIGHT = MAX_WEIGHT * 3 / 4;
+    final private static int WEIGH_EVERY_PUTS = 512;
+    final private static long ENTRY_BYTES = 160;
+    final private static long TYPE_BYTES = 400;
+    final private static long KEY_BYTES = 120;
+
+    final private Map<Key, Entry> keyToEntry = new LinkedHashMap<>(16, 0.75f, true);
+    private int putsSinceWeigh = 0;
+    private long weight = 0;
+    private int peakSize = 0;
+    private long peakWeight = 0;
+    private int evicted = 0;
+
+    public synchronized Opt<Iterable<DeepType>> get(IFuncCtx ctx, PhpExpression expr)
+    {
+        return opt(keyToEntry.get(new Key(ctx, expr))).map(e -> e.types);
+    }
+
+    public synchronized void put(IFuncCtx ctx, PhpExpression expr, Iterable<DeepType> types)
+    {
+        keyToEntry.put(new Key(ctx, expr), new Entry(types, getTier(expr)));
+        peakSize = Math.max(peakSize, keyToEntry.size());
+        if (++putsSinceWeigh >= WEIGH_EVERY_PUTS) {
+            putsSinceWeigh = 0;
+            weigh();
+            if (weight > MAX_WEIGHT) {
+                evict();
+            }
+        }
+    }
+
+    /** 0 - leaf literals, 1 - everything else, 2 - function summaries */
+    private static int getTier(PhpExpression expr)
+    {
+        String resolver = DeepTypeResolver.getResolverName(expr);
+        if (resolver.equals("StringLiteral") || resolver.equals("NumberLiteral") || resolver.equals("ConstRes") || resolver.equals("ClassRef")) {
+            return 0;
+        } else if (resolver.equals("FuncCallRes") || resolver.equals("MethCallRes") || resolver.equals("ClosRes")) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    private static long weighType(DeepType type)
+    {
+        return TYPE_BYTES + (type.keys.size() + type.props.size()) * KEY_BYTES;
+    }
+
+    private static long weighEntry(Entry entry)
+    {
+        return ENTRY_BYTES + Tls.cast(MemoizingIterable.class, entry.types)
+            .map(mit -> ((MemoizingIterable<DeepType>)mit).memoized()
+                .map(t -> weighType(t))
+                .rdc((sum, w) -> sum + w, 0L))
+            .def(0L);
+    }
+
+    private void weigh()
+    {
+        long total = 0;
+        for (Entry entry : keyToEntry.values()) {
+            total += weighEntry(entry);
+        }
+        weight = total;
+        peakWeight = Math.max(peakWeight, weight);
+    }
+
+    /**
+     * a placeholder of expression being resolved right now and an iterable
+     * being pulled are not evicted, they would be re-resolved from the start
+     */
+    private static boolean isEvictable(Entry entry)
+    {
+        return Tls.cast(MemoizingIterable.class, entry.types)
+            .any(mit -> !mit.isProducing());
+    }
+
+    private void evict()
+    {
+        for (int tier = 0; tier <= 2 && weight > TARGET_WEIGHT; ++tier) {
+            Iterator<Entry> entries = keyToEntry.values().iterator();
+            while (entries.hasNext() && weight > TARGET_WEIGHT) {
+                Entry entry = entries.next();
+                if (entry.tier == tier && isEvictable(entry)) {
+                    weight -= weighEntry(entry);
+                    entries.remove();
+                    ++evicted;
+                }
+            }
+        }
+    }
+
+    public synchronized int size()
+    {
+        return keyToEntry.size();
+    }
+
+    public synchronized int getPeakSize()
+    {
+        return peakSize;
+    }
+
+    /** entries kept from before still count, since they are retained during what comes next */
+    public synchronized void resetPeak()
+    {
+        peakSize = keyToEntry.size();
+        peakWeight = weight;
+    }
+
+    /** estimated bytes retained by the cache as of last weighing */
+    public synchronized long getWeight()
+    {
+        return weight;
+    }
+
+    public synchronized long getPeakWeight()
+    {
+        return peakWeight;
+    }
+
+    public synchronized int getEvicted()
+    {
+        return evicted;
+    }
+
+    public synchronized String formatStats()
+    {
+        return size() + " cached expressions (peak " + peakSize + ", ~"
+            + (peakWeight / 1024) + " KiB), " + evicted + " evicted";
+    }
+
+    /** for debug */
+    public synchronized void forEach(C2<IFuncCtx, PhpExpression> action)
+    {
+        keyToEntry.keySet().forEach(key -> action.accept(key.ctx, key.expr));
+    }
+
+    private static class Key
+    {
+        final IFuncCtx ctx;
+        final PhpExpression expr;
+
+        Key(IFuncCtx ctx, PhpExpression expr)
+        {
+            this.ctx = ctx;
+            this.expr = expr;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hash(ctx, expr);
+        }
+
+        public boolean equals(Object thatRaw)
+        {
+            return Tls.cast(Key.class, thatRaw)
+                .any(that -> that.expr.equals(this.expr)
+                    && that.ctx.equals(this.ctx));
+        }
+    }
+
+    private static class Entry
+    {
+        final Iterable<DeepType> types;
+        final int tier;
+
+        Entry(Iterable<DeepType> types, int tier)
+        {
+            this.types = types;
+            this.tier = tier;
+        }
+    }
+}
@@ -11,8 +11,9 @@ import org.klesun.deep_assoc_completion.resolvers.ArrCtorRes;
 import org.klesun.lang.*;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** a node in called function stack trace with args */
 public class FuncCtx extends Lang implements IFuncCtx
@@ -32,20 +33,46 @@ public class FuncCtx extends Lang implements IFuncCtx
     public Opt<PsiElement> fakeFileSource = opt(null);
     private L<StackTraceElement> debugCtorTrace = L();
 
-    private HashMap<Integer, Mt> cachedArgs = new HashMap<>();
+    private Map<Integer, Mt> cachedArgs = new ConcurrentHashMap<>();
+    final private int callStackLength;
+    // clsIdeaType and instGetter are assigned right after construction in
+    // subCtx* functions, so identity is memoized on first use, not in constructor
+    private Set<String> clsFqns = null;
+    private Integer hashValue = null;
 
-    public FuncCtx(SearchContext search)
+    private FuncCtx(SearchContext search, int callStackLength)
     {
         this.argGetters = L();
         this.search = search;
         this.uniqueRef = opt(null);
         this.parent = opt(null);
         this.argPsiType = EArgPsiType.NONE;
+        this.callStackLength = callStackLength;
         if (search.debug) {
             debugCtorTrace = L(new Exception().getStackTrace());
         }
     }
 
+    public FuncCtx(SearchContext search)
+    {
+        this(search, 1);
+    }
+
+    /**
+     * empty ctx that keeps only the length of the call stack, so that
+     * recursion through arg-independent returns was still bounded
+     */
+    public FuncCtx subCtxRoot()
+    {
+        return new FuncCtx(search, callStackLength);
+    }
+
+    /** empty ctx of another search, see ParallelRes */
+    FuncCtx subCtxFork(SearchContext fork)
+    {
+        return new FuncCtx(fork, callStackLength);
+    }
+
     public FuncCtx(FuncCtx parentCtx, L<S<Mt>> argGetters, PsiElement uniqueRef, EArgPsiType argPsiType)
     {
         this.argGetters = argGetters;
@@ -55,6 +82,7 @@ public class FuncCtx extends Lang implements IFuncCtx
         this.argPsiType = argPsiType;
         this.fakeFileSource = opt(parentCtx)
             .fop(par -> par.fakeFileSource);
+        this.callStackLength = parentCtx.callStackLength + 1;
         if (search.debug) {
             debugCtorTrace = L(new Exception().getStackTrace());
         }
@@ -216,11 +244,19 @@ public class FuncCtx extends Lang implements IFuncCtx
         return search;
     }
 
+    private Set<String> getClsFqns()
+    {
+        if (clsFqns == null) {
+            clsFqns = ArrCtorRes.ideaTypeToFqn(clsIdeaType.def(null));
+        }
+        return clsFqns;
+    }
+
     private L<Object> getHashValues()
     {
         L<Object> values = list();
         values.add(argPsiType);
-        values.add(clsIdeaType.map(ArrCtorRes::ideaTypeToFqn));
+        values.add(clsIdeaType.map(t -> getClsFqns()));
         values.add(hasArgs());
         if (!hasArgs()) return values;
         values.add(uniqueRef);
@@ -229,16 +265,68 @@ public class FuncCtx extends Lang implements IFuncCtx
         return values;
     }
 
+    /** whether ctx has no info about the caller, so expression could be resolved in any new search instead */
+    boolean isEmpty()
+    {
+        return !hasArgs() && !clsIdeaType.has() && closureVars.size() == 0
+            && !fakeFileSource.has() && !parent.has();
+    }
+
+    /**
+     * same as hash values, but only if they do not reference the PSI of a
+     * particular call, so that result could be reused by further searches
+     */
+    Opt<L<Object>> getContextFreeHash()
+    {
+        if (hasArgs() || closureVars.size() > 0) {
+            return non();
+        } else if (fakeFileSource.has()) {
+            // parsed doc expressions are non-physical PSI that lives as long as the doc
+            // file cache, and self:: in them depends on the doc position - project
+            // cache would keep such PSI alive after the doc was changed and reparsed
+            return non();
+        } else {
+            return som(getHashValues());
+        }
+    }
+
     public int hashCode()
     {
-        return getHashValues().hashCode();
+        if (hashValue == null) {
+            // parent hash is memoized as well, so it is computed once per ctx
+            hashValue = getHashValues().hashCode();
+        }
+        return hashValue;
     }
 
+    /** same as comparing getHashValues(), but without allocating them on every cache lookup */
     public boolean equals(Object thatRaw)
     {
-        return Tls.cast(FuncCtx.class, thatRaw)
-            .map(that -> this.getHashValues().equals(that.getHashValues()))
-            .def(false);
+        if (this == thatRaw) {
+            return true;
+        } else if (!(thatRaw instanceof FuncCtx)) {
+            return false;
+        }
+        FuncCtx that = (FuncCtx)thatRaw;
+        if (this.hashCode() != that.hashCode()
+            || this.argPsiType != that.argPsiType
+            || this.hasArgs() != that.hasArgs()
+            || this.clsIdeaType.has() != that.clsIdeaType.has()
+            || !this.getClsFqns().equals(that.getClsFqns())
+        ) {
+            return false;
+        } else if (!hasArgs()) {
+            return true;
+        } else if (!this.uniqueRef.equals(that.uniqueRef)) {
+            return false;
+        } else if (!uniqueRef.has()) {
+            return true;
+        } else {
+            FuncCtx thisPar = this.parent.def(null);
+            FuncCtx thatPar = that.parent.def(null);
+            return thisPar == thatPar
+                || thisPar != null && thisPar.equals(thatPar);
+        }
     }
 
     /** for debug */
@@ -275,6 +363,6 @@ public class FuncCtx extends Lang implements IFuncCtx
 
     public int getCallStackLength()
     {
-        return getCallStack().size();
+        return callStackLength;
     }
 }
@@ -0,0 +1,167 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.psi.elements.*;
+import com.jetbrains.php.lang.psi.elements.impl.ForeachImpl;
+import org.klesun.deep_assoc_completion.resolvers.ClosRes;
+import org.klesun.lang.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * context-independent info about what function returns: the returned
+ * expressions and whether each of them depends on args/$this/closure vars
+ *
+ * expressions that do not depend on them can be resolved in an empty context,
+ * so result is shared among all calls of the function instead of being
+ * re-resolved for each new set of args. Summary is kept till file changes
+ */
+public class FuncSummary extends Lang
+{
+    // functions that give access to vars without mentioning them by name
+    final private static Set<String> SCOPE_LEAKING_FUNCS = new HashSet<>(list(
+        "func_get_args", "func_get_arg", "get_defined_vars", "extract", "compact", "eval"
+    ));
+
+    final public L<Ret> returns;
+    final public L<Ret> yields;
+
+    private FuncSummary(L<Ret> returns, L<Ret> yields)
+    {
+        this.returns = returns;
+        this.yields = yields;
+    }
+
+    public static class Ret
+    {
+        final public PhpExpression value;
+        final public boolean dependsOnCtx;
+        // for yields - "yield from" returns elements of the value, not value itself
+        final public boolean isFrom;
+
+        Ret(PhpExpression value, boolean dependsOnCtx, boolean isFrom)
+        {
+            this.value = value;
+            this.dependsOnCtx = dependsOnCtx;
+            this.isFrom = isFrom;
+        }
+    }
+
+    public static FuncSummary get(Function func)
+    {
+        return CachedValuesManager.getCachedValue(func, () ->
+            CachedValueProvider.Result.create(make(func), func.getContainingFile()));
+    }
+
+    private static boolean dependsOn(PsiElement psi, Set<String> ctxVars)
+    {
+        Mutable<Boolean> depends = new Mutable<>(false);
+        PsiTreeUtil.processElements(psi, el -> {
+            boolean isCtxPsi = Tls.cast(Variable.class, el)
+                    .any(v -> opt(v.getName()).def("").equals("") || ctxVars.contains(v.getName()))
+                || Tls.cast(ClassReference.class, el)
+                    // static:: is resolved from the class of the passed $this
+                    .any(ref -> ref.getText().equals("static"))
+                || Tls.cast(FunctionReference.class, el)
+                    .any(call -> SCOPE_LEAKING_FUNCS.contains(call.getName()));
+            depends.set(isCtxPsi);
+            return !isCtxPsi;
+        });
+        return depends.get();
+    }
+
+    private static It<String> getVarNames(PsiElement psi)
+    {
+        return It(PsiTreeUtil.findChildrenOfType(psi, Variable.class))
+            .cct(Tls.cast(Variable.class, psi))
+            .fop(v -> opt(v.getName()));
+    }
+
+    /** vars that got value from args or $this directly or through other vars */
+    private static Set<String> collectCtxVars(Function func)
+    {
+        Set<String> ctxVars = new HashSet<>();
+        ctxVars.add("this");
+        L(func.getParameters()).fch(par -> ctxVars.add(par.getName()));
+        It(func.getChildren())
+            .fop(toCast(PhpUseList.class))
+            .fap(use -> getVarNames(use))
+            .fch(ctxVars::add);
+
+        L<PsiElement> writes = L(PsiTreeUtil.findChildrenOfAnyType(func,
+            AssignmentExpression.class, ForeachImpl.class, FunctionReference.class));
+        boolean changed = true;
+        while (changed) {
+            int sizeBefore = ctxVars.size();
+            writes.fch(psi -> {
+                // key of the destination taints it as well, like in `$r[$param] = 1`
+                Tls.cast(AssignmentExpression.class, psi)
+                    .fap(ass -> {
+                        L<PsiElement> dests = It(ass.getChildren())
+                            .flt(child -> !child.isEquivalentTo(ass.getValue())).arr();
+                        boolean depends = opt(ass.getValue()).any(val -> dependsOn(val, ctxVars))
+                            || dests.any(dest -> dependsOn(dest, ctxVars));
+                        return depends ? dests : L();
+                    })
+                    .fap(dest -> getVarNames(dest))
+                    .fch(ctxVars::add);
+                Tls.cast(ForeachImpl.class, psi)
+                    .flt(fch -> opt(fch.getArray()).any(arr -> dependsOn(arr, ctxVars)))
+                    .fap(fch -> It.cnc(L(fch.getVariables()), opt(fch.getKey())))
+                    .fop(v -> opt(v.getName()))
+                    .fch(ctxVars::add);
+                // args may be passed by reference, like preg_match($regex, $param, $matches)
+                Tls.cast(FunctionReference.class, psi)
+                    .flt(call -> L(call.getParameters()).any(arg -> dependsOn(arg, ctxVars)))
+                    .fap(call -> L(call.getParameters()))
+                    .fop(toCast(Variable.class))
+                    .fop(v -> opt(v.getName()))
+                    .fch(ctxVars::add);
+            });
+            changed = ctxVars.size() > sizeBefore;
+        }
+        return ctxVars;
+    }
+
+    private static boolean leaksScope(PsiElement funcBody)
+    {
+        Mutable<Boolean> leaks = new Mutable<>(false);
+        PsiTreeUtil.processElements(funcBody, el -> {
+            boolean isLeak = Tls.cast(Variable.class, el)
+                    .any(v -> opt(v.getName()).def("").equals(""))
+                || Tls.cast(FunctionReference.class, el)
+                    .any(call -> SCOPE_LEAKING_FUNCS.contains(call.getName()));
+            leaks.set(isLeak);
+            return !isLeak;
+        });
+        return leaks.get();
+    }
+
+    /** use get() if you have a Function - this one does not cache anything */
+    public static FuncSummary make(PsiElement funcBody)
+    {
+        Set<String> ctxVars = Tls.cast(Function.class, funcBody)
+            .map(func -> collectCtxVars(func))
+            .def(new HashSet<>(list("this")));
+        boolean leaksScope = leaksScope(funcBody);
+
+        L<Ret> returns = ClosRes.findFunctionReturns(funcBody)
+            .fop(ret -> opt(ret.getArgument()))
+            .fop(toCast(PhpExpression.class))
+            .map(val -> new Ret(val, leaksScope || dependsOn(val, ctxVars), false))
+            .arr();
+        L<Ret> yields = ClosRes.findFunctionYields(funcBody)
+            .fop(yld -> opt(yld.getArgument())
+                .fop(toCast(PhpExpression.class))
+                .map(val -> new Ret(
+                    val, leaksScope || dependsOn(val, ctxVars),
+                    opt(yld.getText()).fop(txt -> Tls.regex("yield\\s+from[^A-Za-z].*", txt)).has()
+                )))
+            .arr();
+        return new FuncSummary(returns, yields);
+    }
+}
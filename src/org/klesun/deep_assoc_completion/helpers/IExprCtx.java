@@ -28,6 +28,7 @@ public interface IExprCtx {
     IFuncCtx func();
     IExprCtx subCtxEmpty();
     IExprCtx subCtxEmpty(PsiElement fakeFileSource);
+    IExprCtx subCtxRoot();
     IExprCtx subCtxDirect(FunctionReference funcCall);
     IExprCtx subCtxDirect(NewExpression funcCall);
     IExprCtx subCtxSingleArgArr(PhpExpression argArr);
@@ -40,7 +41,11 @@ public interface IExprCtx {
     Map<PsiFile, Collection<FieldReferenceImpl>> getFieldRefCache();
 
     It<DeepType> findExprType(PhpExpression expr);
+    /** for independent expressions - they may be resolved in parallel if search allows */
+    It<DeepType> findExprTypes(L<PhpExpression> exprs);
     It<DeepType> limitResolve(int limit, PhpExpression expr);
+    /** whether resolvers may answer from file-based indexes instead of PSI */
+    boolean isUseIndexes();
 
 
     /**
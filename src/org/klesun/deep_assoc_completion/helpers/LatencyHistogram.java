@@ -0,0 +1,75 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * log-linear histogram of nanosecond durations in the spirit of HdrHistogram: each
+ * power of two range is split into 8 linear sub-buckets, so any recorded value is
+ * reported with at most 12.5% error, and memory does not depend on the value range
+ */
+public class LatencyHistogram
+{
+    final private static int SUB_BITS = 3;
+    final private static int SUB_COUNT = 1 << SUB_BITS;
+
+    final private AtomicLongArray counts = new AtomicLongArray(64 * SUB_COUNT);
+    final private AtomicLong total = new AtomicLong(0);
+    final private AtomicLong max = new AtomicLong(0);
+
+    private static int toBucket(long value)
+    {
+        if (value < SUB_COUNT) {
+            return (int)Math.max(0, value);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (magnitude - SUB_BITS)) & (SUB_COUNT - 1);
+        return (magnitude - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /** lowest value that falls into the bucket */
+    private static long fromBucket(int bucket)
+    {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_COUNT + SUB_BITS - 1;
+        long sub = bucket % SUB_COUNT;
+        return (1L << magnitude) | (sub << (magnitude - SUB_BITS));
+    }
+
+    public void record(long nanos)
+    {
+        counts.incrementAndGet(toBucket(nanos));
+        total.incrementAndGet();
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount()
+    {
+        return total.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /** @param percentile - from 0 to 100 */
+    public long getPercentile(double percentile)
+    {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            seen += counts.get(i);
+            if (seen >= threshold) {
+                return Math.min(fromBucket(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -96,11 +96,7 @@ public class Mt extends Lang
     public static It<DeepType> getKeySt(DeepType type, @Nullable String keyName)
     {
         return It.cnc(
-            type.keys
-                .flt(k -> keyName == null || k.keyType.getTypes.get()
-                    .any(kt -> keyName.equals(kt.stringValue)
-                        || kt.stringValue == null
-                        && (!kt.isNumber() || Tls.isNum(keyName))))
+            (keyName == null ? type.keys.itr() : type.getKeysByName(keyName))
                 .fap(k -> k.getTypes()),
             opt(type.briefType.elementType().filterUnknown().filterMixed())
                 .flt(it -> !it.isEmpty()).itr()
@@ -0,0 +1,125 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import com.intellij.openapi.application.ex.ApplicationManagerEx;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.lang.*;
+
+import java.util.concurrent.*;
+
+/**
+ * resolves independent expressions, like returns of a function that do not depend
+ * on args, each in a separate search in a thread pool, for explicit completion
+ * on a multi-core machine, when resolution takes seconds
+ *
+ * most of the state (FuncCtx args, search caches) is not thread-safe, so
+ * only expressions in an empty context are forked: a fresh search of each worker can then
+ * resolve them without touching anything the main thread has. Worker takes the read lock
+ * with tryRunReadAction(), since blocking on it while main thread waits for us under
+ * read action would deadlock when a write action is pending - such expressions are
+ * just resolved in current thread. Only top-level types are resolved in workers,
+ * their keys are resolved lazily in the thread that asks for them afterwards
+ *
+ * fork starts at the depth and call stack length of the forking ctx, and counts
+ * expressions against the limit of the parent search, see SearchContext.forkOf()
+ *
+ * workers do blocking PSI work, so they have their own small pool rather than
+ * the common ForkJoin pool that is shared with the rest of the IDE
+ */
+class ParallelRes extends Lang
+{
+    final private static int MAX_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    final private static ExecutorService WORKERS = makeWorkers();
+
+    final private ExprCtx exprCtx;
+    final private SearchContext search;
+
+    ParallelRes(ExprCtx exprCtx, SearchContext search)
+    {
+        this.exprCtx = exprCtx;
+        this.search = search;
+    }
+
+    private static ExecutorService makeWorkers()
+    {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            MAX_WORKERS, MAX_WORKERS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "deep-assoc-completion ParallelRes");
+                thread.setDaemon(true);
+                return thread;
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private Opt<L<DeepType>> resolveInWorker(SearchContext fork, PhpExpression expr)
+    {
+        Mutable<L<DeepType>> result = new Mutable<>(null);
+        boolean ran = ApplicationManagerEx.getApplicationEx().tryRunReadAction(() -> {
+            ExprCtx forkCtx = exprCtx.subCtxFork(fork, expr);
+            result.set(It(fork.findExprType(expr, forkCtx)).arr());
+        });
+        return ran ? opt(result.get()) : non();
+    }
+
+    /** waits for next finished worker, checking for cancellation */
+    private static <T> T takeNext(CompletionService<T> done)
+    {
+        try {
+            Future<T> future = null;
+            while (future == null) {
+                ProgressManager.checkCanceled();
+                future = done.poll(10, TimeUnit.MILLISECONDS);
+            }
+            return future.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException();
+        } catch (ExecutionException exc) {
+            if (exc.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)exc.getCause();
+            } else if (exc.getCause() instanceof Error) {
+                throw (Error)exc.getCause();
+            } else {
+                throw new RuntimeException(exc.getCause());
+            }
+        }
+    }
+
+    /** types of each expression are given as soon as its worker is done */
+    private It<DeepType> forkAll(L<PhpExpression> exprs)
+    {
+        L<SearchContext> forks = exprs.map(expr -> new SearchContext(search.project.def(null))
+            .forkOf(search)
+            .setDepth(search.initialDepth)
+            .setUseIndexes(search.isUseIndexes())
+            .setDebug(false)).arr();
+        CompletionService<T2<Integer, Opt<L<DeepType>>>> done = new ExecutorCompletionService<>(WORKERS);
+        exprs.fch((expr, i) -> done.submit(() -> T2(i, resolveInWorker(forks.get(i), expr))));
+
+        return Tls.range(0, exprs.size()).fap(n -> {
+            T2<Integer, Opt<L<DeepType>>> forked = takeNext(done);
+            int i = forked.a;
+            return forked.b.uni(
+                forkedTypes -> It(forkedTypes),
+                () -> exprCtx.findExprType(exprs.get(i)));
+        });
+    }
+
+    /** falls back to sequential resolution when search is not parallel */
+    It<DeepType> findExprTypes(L<PhpExpression> exprs)
+    {
+        boolean canFork = search.isParallel()
+            && exprs.size() > 1
+            && Tls.cast(FuncCtx.class, exprCtx.func()).any(ctx -> ctx.isEmpty());
+        if (canFork) {
+            // so that nothing was resolved till caller actually asks for types
+            return It(() -> forkAll(exprs).iterator());
+        } else {
+            return exprs.fap(expr -> exprCtx.findExprType(expr));
+        }
+    }
+}
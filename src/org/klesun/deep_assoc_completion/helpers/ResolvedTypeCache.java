@@ -0,0 +1,137 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiFile;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.lang.*;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * keeps resolved expression types between completion invocations, so that
+ * same 20-level deep method chain was not re-resolved on every keystroke
+ *
+ * only context-free results (no args, no closure vars) are stored here, since
+ * results with args depend on the PSI of a particular call in a particular search
+ *
+ * only results fully retrieved without hitting any search limit are stored, as
+ * a list rather than the lazy iterable of the search that resolved them, so that
+ * taking them from here did not pull the source in the context of a finished search.
+ * Keys of the stored types are still lazy, so search that resolved them is kept too,
+ * to be bound to the limits of the search that takes the entry
+ *
+ * entry is dropped when any file it was resolved from is modified: result of an
+ * expression depends on the bodies of functions it calls, that may be in other files,
+ * but typing in one file should not drop results that never looked into it
+ */
+public class ResolvedTypeCache extends Lang
+{
+    final private static int MAX_ENTRIES = 5000;
+
+    final private Project project;
+    final private Map<Key, Entry> keyToEntry = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public ResolvedTypeCache(Project project)
+    {
+        this.project = project;
+    }
+
+    public static ResolvedTypeCache inst(Project project)
+    {
+        return ServiceManager.getService(project, ResolvedTypeCache.class);
+    }
+
+    /**
+     * @param depthLeft - how many levels deeper the caller is allowed to go, entry
+     *                    resolved with a smaller limit would give incomplete result
+     * @param callsLeft - same, but for function call stack length limit
+     * @param ctxHash - context-free hash of the function context and the flags of the search
+     */
+    synchronized Opt<Entry> get(PhpExpression expr, L<Object> ctxHash, int depthLeft, int callsLeft)
+    {
+        Key key = new Key(expr, ctxHash);
+        return opt(keyToEntry.get(key))
+            .flt(entry -> {
+                boolean isValid = expr.isValid() && !entry.isModified();
+                if (!isValid) {
+                    keyToEntry.remove(key);
+                }
+                return isValid;
+            })
+            .flt(entry -> entry.depthLeft >= depthLeft
+                && entry.callsLeft >= callsLeft);
+    }
+
+    /**
+     * @param origin - search that resolved the types, lazy keys will be resolved by it
+     * @param files - files of all expressions the types were resolved from
+     */
+    synchronized void put(PhpExpression expr, L<Object> ctxHash, int depthLeft, int callsLeft, L<DeepType> types, SearchContext origin, Set<PsiFile> files)
+    {
+        Key key = new Key(expr, ctxHash);
+        Entry old = keyToEntry.get(key);
+        if (old == null || old.depthLeft <= depthLeft && old.callsLeft <= callsLeft) {
+            keyToEntry.put(key, new Entry(types, depthLeft, callsLeft, origin, files));
+        }
+    }
+
+    private static class Key
+    {
+        final PhpExpression expr;
+        final L<Object> ctxHash;
+
+        Key(PhpExpression expr, L<Object> ctxHash)
+        {
+            this.expr = expr;
+            this.ctxHash = ctxHash;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hash(expr, ctxHash);
+        }
+
+        public boolean equals(Object thatRaw)
+        {
+            return Tls.cast(Key.class, thatRaw)
+                .any(that -> that.expr.equals(this.expr)
+                    && that.ctxHash.equals(this.ctxHash));
+        }
+    }
+
+    static class Entry
+    {
+        final L<DeepType> types;
+        final int depthLeft;
+        final int callsLeft;
+        final SearchContext origin;
+        final Set<PsiFile> files;
+        // modification stamps of files at the moment types were resolved
+        final private L<T2<PsiFile, Long>> stamps;
+
+        Entry(L<DeepType> types, int depthLeft, int callsLeft, SearchContext origin, Set<PsiFile> files)
+        {
+            this.types = types;
+            this.depthLeft = depthLeft;
+            this.callsLeft = callsLeft;
+            this.origin = origin;
+            this.files = new HashSet<>(files);
+            this.stamps = L(this.files).map(f -> T2(f, f.getModificationStamp())).arr();
+        }
+
+        boolean isModified()
+        {
+            return stamps.any(stamp -> !stamp.a.isValid() || stamp.a.getModificationStamp() != stamp.b);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import org.klesun.lang.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * per-resolver counters, to see which of them makes completion slow on your codebase
+ *
+ * resolution is lazy, so time is measured on each pull of the iterator returned by
+ * resolver, not when resolver is called. Self time is the pull time minus time of
+ * nested pulls of other tracked iterators in same thread. Latency histogram gets the
+ * whole time spent in an iterator when it is exhausted, abandoned ones are not recorded
+ *
+ * recording is off by default since it adds two nanoTime() calls per pull
+ */
+public class ResolverMetrics extends Lang
+{
+    private static volatile boolean enabled = false;
+    final private static Map<String, Stats> nameToStats = new ConcurrentHashMap<>();
+    final private static ThreadLocal<Deque<Frame>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+
+    public static class Stats
+    {
+        final public String name;
+        final public LongAdder invocations = new LongAdder();
+        final public LongAdder cacheHits = new LongAdder();
+        final public LongAdder cacheMisses = new LongAdder();
+        final public LongAdder selfNs = new LongAdder();
+        final public LongAdder totalNs = new LongAdder();
+        final public LatencyHistogram latency = new LatencyHistogram();
+
+        Stats(String name)
+        {
+            this.name = name;
+        }
+
+        public double getHitRatio()
+        {
+            long all = cacheHits.sum() + cacheMisses.sum();
+            return all == 0 ? 0 : cacheHits.sum() * 1.0 / all;
+        }
+    }
+
+    private static class Frame
+    {
+        long childNs = 0;
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value)
+    {
+        enabled = value;
+    }
+
+    public static void reset()
+    {
+        nameToStats.clear();
+    }
+
+    private static Stats get(String name)
+    {
+        return nameToStats.computeIfAbsent(name, Stats::new);
+    }
+
+    public static void cacheHit(String name)
+    {
+        if (enabled) {
+            get(name).cacheHits.increment();
+        }
+    }
+
+    public static void cacheMiss(String name)
+    {
+        if (enabled) {
+            get(name).cacheMisses.increment();
+        }
+    }
+
+    private static <T> T timed(Stats stats, long[] spentNs, S<T> action)
+    {
+        Deque<Frame> stack = frames.get();
+        Frame frame = new Frame();
+        stack.push(frame);
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            stack.pop();
+            if (!stack.isEmpty()) {
+                stack.peek().childNs += elapsed;
+            }
+            stats.selfNs.add(elapsed - frame.childNs);
+            stats.totalNs.add(elapsed);
+            spentNs[0] += elapsed;
+        }
+    }
+
+    private static <T> Iterator<T> timedIterator(Stats stats, long[] spentNs, Iterator<T> source)
+    {
+        return new Iterator<T>() {
+            boolean recorded = false;
+            public boolean hasNext() {
+                boolean has = timed(stats, spentNs, source::hasNext);
+                if (!has && !recorded) {
+                    recorded = true;
+                    stats.latency.record(spentNs[0]);
+                }
+                return has;
+            }
+            public T next() {
+                return timed(stats, spentNs, source::next);
+            }
+        };
+    }
+
+    /** @param getTypes - called right away, wrapped in a supplier to measure the eager part as well */
+    public static <T> It<T> track(String name, S<It<T>> getTypes)
+    {
+        if (!enabled) {
+            return getTypes.get();
+        }
+        Stats stats = get(name);
+        stats.invocations.increment();
+        long[] spentNs = {0};
+        It<T> types = timed(stats, spentNs, getTypes);
+        Iterator<T> timedIter = timedIterator(stats, spentNs, types.iterator());
+        return It(() -> timedIter);
+    }
+
+    /** sorted by self time, most expensive first */
+    public static L<Stats> getStats()
+    {
+        return L(nameToStats.values()).srt(s -> -s.selfNs.sum()).arr();
+    }
+
+    private static String ms(long nanos)
+    {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+    public static String format()
+    {
+        String header = String.format("%-22s %10s %8s %12s %12s %9s %9s %9s %9s",
+            "resolver", "calls", "hit %", "self ms", "total ms", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        L<String> rows = getStats().map(s -> String.format("%-22s %10d %8.1f %12s %12s %9s %9s %9s %9s",
+            s.name, s.invocations.sum(), s.getHitRatio() * 100,
+            ms(s.selfNs.sum()), ms(s.totalNs.sum()),
+            ms(s.latency.getPercentile(50)), ms(s.latency.getPercentile(90)),
+            ms(s.latency.getPercentile(99)), ms(s.latency.getMax()))).arr();
+        return header + "\n" + Tls.implode("\n", rows);
+    }
+}
@@ -1,6 +1,9 @@
 package org.klesun.deep_assoc_completion.helpers;
 
 import com.intellij.codeInsight.completion.CompletionParameters;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
@@ -13,10 +16,17 @@ import org.klesun.deep_assoc_completion.entry.DeepSettings;
 import org.klesun.lang.*;
 
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SearchContext extends Lang
 {
@@ -27,15 +37,40 @@ public class SearchContext extends Lang
     public int initialDepth = depthLeft;
     final public static boolean DEBUG_DEFAULT = false;
     public boolean debug = DEBUG_DEFAULT;
-    private Opt<Double> timeout = opt(null);
+    private Opt<Deadline> deadline = opt(null);
     final public Opt<Project> project;
     // for performance measurement
-    private int expressionsResolved = 0;
-    final public L<PhpExpression> psiTrace = L();
-    final private Map<IFuncCtx, Map<PhpExpression, Iterable<DeepType>>> ctxToExprToResult = new HashMap<>();
+    // lazy results may be pulled by other threads, see MemoizingIterable
+    final private AtomicInteger expressionsResolved = new AtomicInteger(0);
+    final private ExprResultCache exprCache = new ExprResultCache();
     public Opt<Integer> overrideMaxExpr = non();
-    final public Map<PsiFile, Collection<FieldReferenceImpl>> fileToFieldRefs = new HashMap<>();
+    final public Map<PsiFile, Collection<FieldReferenceImpl>> fileToFieldRefs = new ConcurrentHashMap<>();
     public boolean isMain = false;
+    // set when expression/time limit or recursion was hit, means that results may be incomplete
+    private Mutable<Boolean> wasLimited = new Mutable<>(false);
+    final private static int MAX_CALL_STACK = 10;
+    // indicator of the action that started the search, captured here since lazy
+    // iterators may be pulled after the action or not in its thread
+    private Opt<ProgressIndicator> indicator = opt(ProgressManager.getInstance().getProgressIndicator());
+    private Mutable<Boolean> canceled = new Mutable<>(false);
+    // resolve independent expressions in a thread pool, see ParallelRes
+    private boolean parallel = false;
+    // set for a ParallelRes fork: its expressions, including lazy keys of
+    // forked types, are counted against the limit of the parent search
+    private Opt<SearchContext> joinedTo = non();
+    // take key names of returned arrays from ReturnKeysIndex instead of PSI
+    private boolean useIndexes = false;
+    // record time spent in each ExprCtx node
+    private boolean profile = false;
+    // take and put results to ResolvedTypeCache shared by all searches in the project
+    private boolean useProjectCache = true;
+    // time spent in nested pulls of currently pulled iterators, for self time
+    final private Deque<Mutable<Long>> profileFrames = new ArrayDeque<>();
+    // files of results pulled right now in this thread, common for all searches,
+    // since keys of a cached result are pulled by the search that resolved it
+    final private static ThreadLocal<Deque<Set<PsiFile>>> fileFrames = ThreadLocal.withInitial(ArrayDeque::new);
+    // files each result of this search was resolved from so far, see ResolvedTypeCache
+    final private Map<Iterable<DeepType>, Set<PsiFile>> resultToFiles = Collections.synchronizedMap(new WeakHashMap<>());
 
     public SearchContext(@Nullable Project project)
     {
@@ -53,18 +88,183 @@ public class SearchContext extends Lang
         return this;
     }
 
+    /** @param timeout - in seconds */
     public SearchContext setTimeout(double timeout)
     {
-        this.timeout = opt(timeout);
+        this.deadline = opt(Deadline.fromNow(timeout));
         return this;
     }
 
+    public SearchContext setTimeoutMs(long timeoutMs)
+    {
+        this.deadline = opt(Deadline.fromNowMs(timeoutMs));
+        return this;
+    }
+
+    public SearchContext setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+        return this;
+    }
+
+    public boolean isParallel()
+    {
+        return parallel;
+    }
+
+    public SearchContext setUseIndexes(boolean useIndexes)
+    {
+        this.useIndexes = useIndexes;
+        return this;
+    }
+
+    public boolean isUseIndexes()
+    {
+        return useIndexes;
+    }
+
+    /** benchmarks need to measure the actual resolution, not a lookup of results of the previous run */
+    public SearchContext setUseProjectCache(boolean useProjectCache)
+    {
+        this.useProjectCache = useProjectCache;
+        return this;
+    }
+
+    public SearchContext setProfile(boolean profile)
+    {
+        this.profile = profile;
+        return this;
+    }
+
+    /** attributes time of the call to the node, minus time of nested profiled calls */
+    private <T> T profiled(ExprCtx node, S<T> action)
+    {
+        if (!profile) {
+            return action.get();
+        }
+        Mutable<Long> childNs = new Mutable<>(0L);
+        profileFrames.push(childNs);
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            profileFrames.pop();
+            if (!profileFrames.isEmpty()) {
+                Mutable<Long> parentNs = profileFrames.peek();
+                parentNs.set(parentNs.get() + elapsed);
+            }
+            node.totalNs += elapsed;
+            node.selfNs += elapsed - childNs.get();
+        }
+    }
+
     public SearchContext setDebug(boolean debug)
     {
         this.debug = debug;
         return this;
     }
 
+    /** sub-search started by this search should stop when this search is canceled */
+    public SearchContext shareCancellation(SearchContext parent)
+    {
+        this.indicator = parent.indicator;
+        this.canceled = parent.canceled;
+        this.deadline = parent.deadline;
+        return this;
+    }
+
+    /**
+     * a search whose results become part of parent results: a search started by ParallelRes,
+     * or the search that resolved a result taken from ResolvedTypeCache - lazy keys of
+     * such result are resolved by it on behalf of the search that asks for them
+     */
+    SearchContext forkOf(SearchContext parent)
+    {
+        shareCancellation(parent);
+        this.wasLimited = parent.wasLimited;
+        this.joinedTo = som(parent);
+        this.useProjectCache = parent.useProjectCache;
+        return this;
+    }
+
+    private boolean isJoinedTo(SearchContext other)
+    {
+        return this == other || joinedTo.any(parent -> parent.isJoinedTo(other));
+    }
+
+    private boolean isExpressionLimitHit()
+    {
+        return joinedTo.uni(
+            parent -> parent.isExpressionLimitHit(),
+            () -> expressionsResolved.incrementAndGet() > getMaxExpressions()
+        );
+    }
+
+    /** stop the search on next expression, for example when user typed further */
+    public void cancel()
+    {
+        canceled.set(true);
+    }
+
+    public boolean isCanceled()
+    {
+        return canceled.get() || indicator.any(ind -> ind.isCanceled());
+    }
+
+    private boolean isTimedOut()
+    {
+        return deadline.any(dl -> dl.isOver());
+    }
+
+    private void checkCanceled()
+    {
+        if (isCanceled()) {
+            wasLimited.set(true);
+            throw new ProcessCanceledException();
+        }
+    }
+
+    /**
+     * resolution may be interrupted with ProcessCanceledException in the middle
+     * of iteration, result in such case is incomplete and must not be shared
+     *
+     * when time is over, iteration ends on next pull, so that types found
+     * till that moment were still returned, not just the ones of finished expressions.
+     * Once hasNext() said "true", the element is given even if time got over
+     * before next(), since caller has no way to handle "no element" there
+     */
+    private Iterator<DeepType> guardPulls(Iterator<DeepType> source, ExprCtx exprCtx)
+    {
+        return new Iterator<DeepType>() {
+            boolean promised = false;
+            public boolean hasNext() {
+                if (promised) {
+                    return true;
+                } else if (isTimedOut()) {
+                    wasLimited.set(true);
+                    return false;
+                }
+                try {
+                    promised = profiled(exprCtx, source::hasNext);
+                    return promised;
+                } catch (ProcessCanceledException exc) {
+                    wasLimited.set(true);
+                    throw exc;
+                }
+            }
+            public DeepType next() {
+                promised = false;
+                try {
+                    return profiled(exprCtx, source::next);
+                } catch (ProcessCanceledException exc) {
+                    wasLimited.set(true);
+                    throw exc;
+                }
+            }
+        };
+    }
+
     public Integer getMaxExpressions()
     {
         // max expressions per single search - guard
@@ -78,42 +278,50 @@ public class SearchContext extends Lang
         ).def(10000);
     }
 
-    private <T> boolean endsWith(L<T> superList, L<T> subList)
+    /** 0 means no widening */
+    public Integer getWideningThreshold()
     {
-        for (int i = 0; i < subList.size(); ++i) {
-            if (i >= superList.size() || !superList.get(-i - 1).equals(subList.get(-i - 1))) {
-                return false;
-            }
-        }
-        return true;
+        return project.map(project -> {
+            DeepSettings settings = DeepSettings.inst(project);
+            return settings.typeWideningThreshold;
+        }).def(0);
     }
 
-    // should probably keep expression tree and start using this again
-    private boolean isRecursion()
+    /**
+     * passes first threshold - 1 types as is, and if there are more, merges
+     * all the rest into a single record shape, so that work on the result was
+     * bounded by the shape size rather than by path count. Only top-level types
+     * are pulled for that, their key values stay lazy in the merged shape
+     */
+    private It<DeepType> widen(It<DeepType> types)
     {
-        // imagine sequence: a b c d e f g e f g
-        //                           ^_____^_____
-        // I'm not sure this assumption is right, but I'll try to
-        // treat any case where end repeats pre-end as recursion
-        for (int i = 0; i < psiTrace.size() / 2; ++i) {
-            L<PhpExpression> subList = psiTrace.sub(psiTrace.size() - i * 2 - 2, i + 1);
-            if (endsWith(psiTrace, subList)) {
-                return true;
-            }
+        int threshold = getWideningThreshold();
+        if (threshold <= 0) {
+            return types;
         }
-        return false;
+        Iterator<DeepType> source = types.iterator();
+        return It(() -> new Iterator<DeepType>() {
+            int passed = 0;
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+            public DeepType next() {
+                DeepType next = source.next();
+                if (++passed < threshold) {
+                    return next;
+                }
+                L<DeepType> rest = list(next);
+                while (source.hasNext()) {
+                    rest.add(source.next());
+                }
+                return rest.size() > 1 ? DeepType.widen(rest) : next;
+            }
+        });
     }
 
     private Opt<Iterable<DeepType>> takeFromCache(IFuncCtx ctx, PhpExpression expr)
     {
-        if (!ctxToExprToResult.containsKey(ctx)) {
-            return opt(null);
-        }
-        if (!ctxToExprToResult.get(ctx).containsKey(expr)) {
-            return opt(null);
-        }
-        Iterable<DeepType> mt = ctxToExprToResult.get(ctx).get(expr);
-        return opt(mt);
+        return exprCache.get(ctx, expr);
     }
 
     public static String formatPsi(PsiElement expr)
@@ -123,27 +331,161 @@ public class SearchContext extends Lang
         return Tls.singleLine(expr.getText(), 120) + " - " + expr.getContainingFile().getName() + ":" + phpLineNum;
     }
 
-    private void putToCache(IFuncCtx ctx, PhpExpression expr, Iterable<DeepType> result)
+    private boolean isSharable()
+    {
+        // profiled nodes should get their time, not a result resolved by another search
+        return useProjectCache && !debug && !profile && !overrideMaxExpr.has();
+    }
+
+    /** flags that affect the result, so that differently configured searches did not share it */
+    private L<Object> makeProjectCacheKey(L<Object> ctxHash)
+    {
+        L<Object> key = list();
+        key.addAll(ctxHash);
+        key.add(useIndexes);
+        key.add(parallel);
+        return key;
+    }
+
+    private Opt<Iterable<DeepType>> takeFromProjectCache(ExprCtx exprCtx, PhpExpression expr)
     {
-        if (!ctxToExprToResult.containsKey(ctx)) {
-            ctxToExprToResult.put(ctx, new HashMap<>());
+        if (!isSharable()) {
+            return non();
         }
-        if (ctxToExprToResult.get(ctx).containsKey(expr)) {
-            ctxToExprToResult.get(ctx).remove(expr);
+        return project.fop(proj -> Tls.cast(FuncCtx.class, exprCtx.func())
+            .fop(ctx -> ctx.getContextFreeHash())
+            .fop(hash -> ResolvedTypeCache.inst(proj).get(expr, makeProjectCacheKey(hash),
+                initialDepth - exprCtx.depth,
+                MAX_CALL_STACK - exprCtx.func().getCallStackLength())))
+            .map(entry -> {
+                // keys of cached types are lazy and check limits of the search that
+                // resolved them, so it is bound to the limits of this search now
+                if (!isJoinedTo(entry.origin)) {
+                    entry.origin.forkOf(this);
+                }
+                addToFileFrame(entry.files);
+                return entry.types;
+            });
+    }
+
+    private boolean isTrackingFiles()
+    {
+        return project.has() && useProjectCache;
+    }
+
+    private void addToFileFrame(Set<PsiFile> files)
+    {
+        Set<PsiFile> frame = fileFrames.get().peek();
+        if (frame != null && frame != files) {
+            frame.addAll(files);
         }
-        ctxToExprToResult.get(ctx).put(expr, result);
+    }
+
+    private <T> T inFileFrame(Set<PsiFile> files, S<T> pull)
+    {
+        Deque<Set<PsiFile>> frames = fileFrames.get();
+        frames.push(files);
+        try {
+            return pull.get();
+        } finally {
+            frames.pop();
+            addToFileFrame(files);
+        }
+    }
+
+    /**
+     * collects files of the expressions that were resolved while pulling
+     * the result, so that ResolvedTypeCache could tell when it gets stale
+     */
+    private Iterator<DeepType> trackFiles(Iterator<DeepType> source, PhpExpression expr, Set<PsiFile> files)
+    {
+        if (!isTrackingFiles()) {
+            return source;
+        }
+        opt(expr.getContainingFile()).thn(files::add);
+        return new Iterator<DeepType>() {
+            public boolean hasNext() {
+                return inFileFrame(files, source::hasNext);
+            }
+            public DeepType next() {
+                DeepType next = inFileFrame(files, source::next);
+                opt(next.definition).map(psi -> psi.getContainingFile()).thn(files::add);
+                return next;
+            }
+        };
+    }
+
+    /**
+     * result is shared only when it was fully retrieved, and only if search did
+     * not hit any limit till that moment, since we can't tell which results the
+     * limit affected - a result cut by the limit should not be served to others
+     */
+    private Iterator<DeepType> putToProjectCacheWhenDrained(Iterator<DeepType> source, ExprCtx exprCtx, PhpExpression expr, Set<PsiFile> files)
+    {
+        Opt<L<Object>> hashOpt = !isSharable() ? non() : Tls.cast(FuncCtx.class, exprCtx.func())
+            .fop(ctx -> ctx.getContextFreeHash());
+        if (!project.has() || !hashOpt.has()) {
+            return source;
+        }
+        ResolvedTypeCache cache = ResolvedTypeCache.inst(project.unw());
+        L<Object> key = makeProjectCacheKey(hashOpt.unw());
+        int depthLeft = initialDepth - exprCtx.depth;
+        int callsLeft = MAX_CALL_STACK - exprCtx.func().getCallStackLength();
+        L<DeepType> retrieved = list();
+        return new Iterator<DeepType>() {
+            boolean wasPut = false;
+            public boolean hasNext() {
+                boolean hasNext = source.hasNext();
+                if (!hasNext && !wasPut && !wasLimited.get()) {
+                    wasPut = true;
+                    cache.put(expr, key, depthLeft, callsLeft, retrieved, SearchContext.this, files);
+                }
+                return hasNext;
+            }
+            public DeepType next() {
+                DeepType next = source.next();
+                retrieved.add(next);
+                return next;
+            }
+        };
+    }
+
+    private void putToCache(IFuncCtx ctx, PhpExpression expr, Iterable<DeepType> result)
+    {
+        exprCache.put(ctx, expr, result);
+    }
+
+    /** for performance measurement - max number of expression results kept at once */
+    public int getPeakCacheSize()
+    {
+        return exprCache.getPeakSize();
+    }
+
+    /** start counting peak anew, so that it could be measured per pulled result rather than per search */
+    public void resetPeakCacheSize()
+    {
+        exprCache.resetPeak();
+    }
+
+    /** for performance measurement - estimated max bytes retained by expression results */
+    public long getPeakCacheWeight()
+    {
+        return exprCache.getPeakWeight();
+    }
+
+    public String getCacheStats()
+    {
+        return exprCache.formatStats();
     }
 
     private void printCache()
     {
         Map<PhpExpression, L<IFuncCtx>> psiToCtxs = new LinkedHashMap<>();
-        ctxToExprToResult.forEach((ctx, psiToMt) -> {
-            psiToMt.forEach((psi, mt) -> {
-                if (!psiToCtxs.containsKey(psi)) {
-                    psiToCtxs.put(psi, list());
-                }
-                psiToCtxs.get(psi).add(ctx);
-            });
+        exprCache.forEach((ctx, psi) -> {
+            if (!psiToCtxs.containsKey(psi)) {
+                psiToCtxs.put(psi, list());
+            }
+            psiToCtxs.get(psi).add(ctx);
         });
         L(psiToCtxs.keySet())
             .srt(psi -> -psiToCtxs.get(psi).size())
@@ -157,6 +499,7 @@ public class SearchContext extends Lang
 
     public Iterable<DeepType> findExprType(PhpExpression expr, ExprCtx funcCtx)
     {
+        checkCanceled();
         long time = System.nanoTime();
         double seconds = (time - startTime) / 1000000000.0;
         if (!debug && (time - lastReportTime) / 1000000000.0 > 1.0) {
@@ -164,17 +507,38 @@ public class SearchContext extends Lang
             //System.out.println("deep-assoc-completion warning at " + time + ": type resolution takes " + seconds + " seconds " + expr.getText() + " " + expr.getClass());
         }
 
-        if (funcCtx.depth > initialDepth ||  funcCtx.func().getCallStackLength() > 10) { // on <= 6 tests fail
+        if (funcCtx.depth > initialDepth ||  funcCtx.func().getCallStackLength() > MAX_CALL_STACK) { // on <= 6 tests fail
+            return It.non();
+        }
+        if (funcCtx.isRecursion()) {
+            // result cut this way depends on the trace, so it should not be shared
+            wasLimited.set(true);
             return It.non();
         }
-        if (++expressionsResolved > getMaxExpressions()) {
+        if (isExpressionLimitHit()) {
+            wasLimited.set(true);
             return It.non();
-        } else if (timeout.flt(tout -> seconds > tout).has()) {
+        } else if (isTimedOut()) {
+            wasLimited.set(true);
             return It.non();
         }
 
-        Opt<Iterable<DeepType>> result = takeFromCache(funcCtx.func(), expr);
+        Opt<Iterable<DeepType>> cached = takeFromCache(funcCtx.func(), expr);
+        if (cached.any(types -> !(types instanceof MemoizingIterable)
+            || ((MemoizingIterable<DeepType>)types).isProducing())
+        ) {
+            // expression is being resolved right now - a circular reference, that
+            // gives empty result, so results depending on it should not be shared
+            wasLimited.set(true);
+        }
+        cached.fop(types -> opt(resultToFiles.get(types)))
+            .thn(files -> addToFileFrame(files));
+        Opt<Iterable<DeepType>> result = cached
+            .elf(() -> takeFromProjectCache(funcCtx, expr));
         if (result.has()) {
+            if (ResolverMetrics.isEnabled()) {
+                ResolverMetrics.cacheHit(DeepTypeResolver.getResolverName(expr));
+            }
             if (debug) {
                 //System.out.println(indent + "<< TAKING RESULT FROM CACHE");
             }
@@ -183,11 +547,28 @@ public class SearchContext extends Lang
                 putToCache(funcCtx.func(), expr, list());
             }
 
-            It<DeepType> tit = DeepTypeResolver.resolveIn(expr, funcCtx)
+            S<It<DeepType>> resolve = () -> profiled(funcCtx, () -> DeepTypeResolver.resolveIn(expr, funcCtx));
+            It<DeepType> tit;
+            if (ResolverMetrics.isEnabled()) {
+                String resolverName = DeepTypeResolver.getResolverName(expr);
+                ResolverMetrics.cacheMiss(resolverName);
+                tit = ResolverMetrics.track(resolverName, resolve);
+            } else {
+                tit = resolve.get();
+            }
+            tit = tit
                 //.lmt(1000) // .lmt() is just a safety measure, it should not be needed if everything works properly
-                .unq() // .unq() before caching is important since types taken from cache would grow in count exponentially otherwise
+                // .unq() before caching is important since types taken from cache would grow in count exponentially otherwise
+                .unq(t -> t.getFingerprint())
                 ;
-            Iterable<DeepType> mit = new MemoizingIterable<>(tit.iterator());
+            tit = widen(tit);
+            Iterator<DeepType> guarded = guardPulls(tit.iterator(), funcCtx);
+            Set<PsiFile> files = ConcurrentHashMap.newKeySet();
+            Iterator<DeepType> tracked = trackFiles(guarded, expr, files);
+            Iterable<DeepType> mit = new MemoizingIterable<>(putToProjectCacheWhenDrained(tracked, funcCtx, expr, files));
+            if (isTrackingFiles()) {
+                resultToFiles.put(mit, files);
+            }
             result = som(mit);
             if (!overrideMaxExpr.has()) {
                 result.thn(mt -> putToCache(funcCtx.func(), expr, mit));
@@ -205,7 +586,7 @@ public class SearchContext extends Lang
 
     public int getExpressionsResolved()
     {
-        return this.expressionsResolved;
+        return this.expressionsResolved.get();
     }
 
 
@@ -0,0 +1,437 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import org.klesun.lang.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * column names of a SELECT query as they would appear in the row returned
+ * by PDOStatement::fetch(), parsed in a single pass over the SQL tokens
+ *
+ * supports function calls and subqueries in the select list, `AS` and implicit
+ * aliases, `*` and `t.*` from joined tables and derived tables. Parsed query
+ * does not depend on the schema, so it is cached per SQL text, while `*`
+ * are expanded from the schema on each call
+ */
+public class SqlSelect extends Lang
+{
+    // most queries are literals in code, the limit is for ones built dynamically,
+    // least recently used are evicted so that hot queries stayed cached
+    final private static LruCache<String, SqlSelect> sqlToSelect = new LruCache<>(1024);
+
+    final private static Set<String> SELECT_MODIFIERS = set(
+        "ALL", "DISTINCT", "DISTINCTROW", "HIGH_PRIORITY", "STRAIGHT_JOIN",
+        "SQL_SMALL_RESULT", "SQL_BIG_RESULT", "SQL_BUFFER_RESULT",
+        "SQL_CACHE", "SQL_NO_CACHE", "SQL_CALC_FOUND_ROWS", "TOP"
+    );
+    final private static Set<String> SELECT_LIST_END = set(
+        "FROM", "INTO", "WHERE", "GROUP", "HAVING", "ORDER", "LIMIT", "UNION", "FOR"
+    );
+    final private static Set<String> FROM_END = set(
+        "WHERE", "GROUP", "HAVING", "ORDER", "LIMIT", "UNION", "FOR", "LOCK", "WINDOW", "INTO"
+    );
+    // words that may follow table name, but are not its alias
+    final private static Set<String> NOT_TABLE_ALIAS = set(
+        "JOIN", "LEFT", "RIGHT", "INNER", "OUTER", "CROSS", "NATURAL", "FULL",
+        "STRAIGHT_JOIN", "ON", "USING", "USE", "FORCE", "IGNORE", "PARTITION"
+    );
+    // words that may end an expression, but are not its alias
+    final private static Set<String> NOT_COLUMN_ALIAS = set(
+        "END", "NULL", "TRUE", "FALSE", "UNKNOWN"
+    );
+    // words after which next word is an operand, not an alias
+    final private static Set<String> OPERATOR_WORDS = set(
+        "AND", "OR", "XOR", "NOT", "IS", "IN", "LIKE", "REGEXP", "BETWEEN", "DIV",
+        "MOD", "COLLATE", "BINARY", "INTERVAL", "CASE", "WHEN", "THEN", "ELSE"
+    );
+
+    /** either a name of the result column or a `*`/`t.*` to expand */
+    public static class Column
+    {
+        final public Opt<String> name;
+        final public boolean isStar;
+        final public Opt<String> starOf;
+
+        Column(Opt<String> name, boolean isStar, Opt<String> starOf)
+        {
+            this.name = name;
+            this.isStar = isStar;
+            this.starOf = starOf;
+        }
+    }
+
+    /** a table or a derived table in FROM/JOIN */
+    public static class Source
+    {
+        final public Opt<String> table;
+        final public Opt<String> alias;
+        final public Opt<SqlSelect> subquery;
+
+        Source(Opt<String> table, Opt<String> alias, Opt<SqlSelect> subquery)
+        {
+            this.table = table;
+            this.alias = alias;
+            this.subquery = subquery;
+        }
+
+        /** table name can not be used in the query once table got an alias */
+        boolean isReferredAs(String name)
+        {
+            return alias.uni(
+                a -> a.equalsIgnoreCase(name),
+                () -> table.any(t -> t.equalsIgnoreCase(name))
+            );
+        }
+    }
+
+    final public L<Column> columns;
+    final public L<Source> sources;
+
+    private SqlSelect(L<Column> columns, L<Source> sources)
+    {
+        this.columns = columns;
+        this.sources = sources;
+    }
+
+    private static Set<String> set(String... words)
+    {
+        return new HashSet<>(list(words));
+    }
+
+    public static SqlSelect parse(String sql)
+    {
+        return sqlToSelect.get(sql, text -> {
+            L<Token> tokens = tokenize(text);
+            return new Parser(text, tokens).parseSelect(0, tokens.size());
+        });
+    }
+
+    /** @param getColumns - table name -> its column names in the schema */
+    public It<String> getColumnNames(F<String, L<String>> getColumns)
+    {
+        return columns.fap(col -> col.isStar
+            ? sources
+                .flt(src -> col.starOf.all(name -> src.isReferredAs(name)))
+                .fap(src -> src.subquery.uni(
+                    sub -> sub.getColumnNames(getColumns),
+                    () -> src.table.fap(t -> getColumns.apply(t))))
+            : col.name.itr()
+        ).unq();
+    }
+
+    //========================
+    // tokenizer
+    //========================
+
+    private enum Kind {WORD, QUOTED_NAME, STRING, NUMBER, PUNCT}
+
+    private static class Token
+    {
+        final Kind kind;
+        final String text;
+        final int start;
+        final int end;
+
+        Token(Kind kind, String text, int start, int end)
+        {
+            this.kind = kind;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean isWord(Set<String> words)
+        {
+            return kind == Kind.WORD && words.contains(text.toUpperCase());
+        }
+
+        boolean isWord(String word)
+        {
+            return kind == Kind.WORD && text.equalsIgnoreCase(word);
+        }
+
+        boolean isPunct(char ch)
+        {
+            return kind == Kind.PUNCT && text.charAt(0) == ch;
+        }
+
+        boolean isName()
+        {
+            return kind == Kind.WORD || kind == Kind.QUOTED_NAME;
+        }
+    }
+
+    private static boolean isWordChar(char ch)
+    {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+    }
+
+    /** @return index after the closing quote, doubled quote and backslash are escapes */
+    private static int skipQuoted(String sql, int start)
+    {
+        char quote = sql.charAt(start);
+        int i = start + 1;
+        while (i < sql.length()) {
+            char ch = sql.charAt(i);
+            if (ch == '\\' && quote == '\'') {
+                i += 2;
+            } else if (ch == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                ++i;
+            }
+        }
+        return sql.length();
+    }
+
+    private static char unescape(char ch)
+    {
+        switch (ch) {
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case '0': return '\0';
+            default: return ch;
+        }
+    }
+
+    /** same escapes as in skipQuoted(): doubled quote, and backslash in strings */
+    private static String unquote(String sql, int start, int end)
+    {
+        char quote = sql.charAt(start);
+        int contentEnd = Math.min(Math.max(start + 1, end - 1), sql.length());
+        StringBuilder content = new StringBuilder();
+        int i = start + 1;
+        while (i < contentEnd) {
+            char ch = sql.charAt(i);
+            char next = i + 1 < contentEnd ? sql.charAt(i + 1) : '\0';
+            if (ch == '\\' && quote == '\'' && i + 1 < contentEnd) {
+                content.append(unescape(next));
+                i += 2;
+            } else if (ch == quote && next == quote) {
+                content.append(quote);
+                i += 2;
+            } else {
+                content.append(ch);
+                ++i;
+            }
+        }
+        return content.toString();
+    }
+
+    private static L<Token> tokenize(String sql)
+    {
+        L<Token> tokens = L();
+        int len = sql.length();
+        int i = 0;
+        while (i < len) {
+            char ch = sql.charAt(i);
+            char next = i + 1 < len ? sql.charAt(i + 1) : '\0';
+            int start = i;
+            if (Character.isWhitespace(ch)) {
+                ++i;
+            } else if (ch == '#' || ch == '-' && next == '-') {
+                while (i < len && sql.charAt(i) != '\n') {
+                    ++i;
+                }
+            } else if (ch == '/' && next == '*') {
+                int commentEnd = sql.indexOf("*/", i + 2);
+                i = commentEnd < 0 ? len : commentEnd + 2;
+            } else if (ch == '\'' || ch == '"' || ch == '`') {
+                i = skipQuoted(sql, i);
+                Kind kind = ch == '\'' ? Kind.STRING : Kind.QUOTED_NAME;
+                tokens.add(new Token(kind, unquote(sql, start, i), start, i));
+            } else if (ch == '[') {
+                int close = sql.indexOf(']', i + 1);
+                i = close < 0 ? len : close + 1;
+                tokens.add(new Token(Kind.QUOTED_NAME, sql.substring(start + 1, Math.max(start + 1, i - 1)), start, i));
+            } else if (Character.isDigit(ch) || ch == '.' && Character.isDigit(next)) {
+                while (i < len && (isWordChar(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    ++i;
+                }
+                tokens.add(new Token(Kind.NUMBER, sql.substring(start, i), start, i));
+            } else if (isWordChar(ch)) {
+                while (i < len && isWordChar(sql.charAt(i))) {
+                    ++i;
+                }
+                tokens.add(new Token(Kind.WORD, sql.substring(start, i), start, i));
+            } else {
+                ++i;
+                tokens.add(new Token(Kind.PUNCT, sql.substring(start, i), start, i));
+            }
+        }
+        return tokens;
+    }
+
+    //========================
+    // parser
+    //========================
+
+    private static class Parser
+    {
+        final String sql;
+        final L<Token> tokens;
+
+        Parser(String sql, L<Token> tokens)
+        {
+            this.sql = sql;
+            this.tokens = tokens;
+        }
+
+        /**
+         * @return index of first token on the paren level of `from`
+         *         matching the predicate, or of the closing paren of the level
+         */
+        int findOnLevel(int from, int to, F<Token, Boolean> pred)
+        {
+            int depth = 0;
+            for (int i = from; i < to; ++i) {
+                Token tok = tokens.get(i);
+                if (tok.isPunct('(')) {
+                    ++depth;
+                } else if (tok.isPunct(')')) {
+                    if (--depth < 0) {
+                        return i;
+                    }
+                } else if (depth == 0 && pred.apply(tok)) {
+                    return i;
+                }
+            }
+            return to;
+        }
+
+        SqlSelect parseSelect(int from, int to)
+        {
+            int selectAt = findOnLevel(from, to, tok -> tok.isWord("SELECT"));
+            if (selectAt >= to || !tokens.get(selectAt).isWord("SELECT")) {
+                return new SqlSelect(L(), L());
+            }
+            int listStart = selectAt + 1;
+            while (listStart < to && tokens.get(listStart).isWord(SELECT_MODIFIERS)) {
+                ++listStart;
+            }
+            int listEnd = findOnLevel(listStart, to, tok -> tok.isWord(SELECT_LIST_END) || tok.isPunct(';'));
+            L<Column> columns = L();
+            int itemStart = listStart;
+            while (itemStart < listEnd) {
+                int itemEnd = findOnLevel(itemStart, listEnd, tok -> tok.isPunct(','));
+                parseColumn(itemStart, itemEnd).thn(columns::add);
+                itemStart = itemEnd + 1;
+            }
+            L<Source> sources = L();
+            if (listEnd < to && tokens.get(listEnd).isWord("FROM")) {
+                int fromEnd = findOnLevel(listEnd + 1, to, tok -> tok.isWord(FROM_END) || tok.isPunct(';'));
+                parseSources(listEnd + 1, fromEnd, sources);
+            }
+            return new SqlSelect(columns, sources);
+        }
+
+        Opt<Column> parseColumn(int from, int to)
+        {
+            int count = to - from;
+            if (count <= 0) {
+                return non();
+            }
+            Token last = tokens.get(to - 1);
+            Opt<Token> prev = count > 1 ? som(tokens.get(to - 2)) : non();
+            if (last.isPunct('*')) {
+                if (count == 1) {
+                    return som(new Column(non(), true, non()));
+                } else if (count >= 3 && prev.any(p -> p.isPunct('.'))) {
+                    return som(new Column(non(), true, som(tokens.get(to - 3).text)));
+                } else {
+                    return non();
+                }
+            } else if (prev.any(p -> p.isWord("AS"))) {
+                return som(new Column(som(last.text), false, non()));
+            } else if (prev.any(p -> isExprEnd(p)) && isAlias(last)) {
+                return som(new Column(som(last.text), false, non()));
+            } else if (isDottedName(from, to)) {
+                return som(new Column(som(last.text), false, non()));
+            } else if (count == 1) {
+                return som(new Column(som(last.text), false, non()));
+            } else {
+                // mysql names such column by the expression text
+                String text = sql.substring(tokens.get(from).start, last.end);
+                return som(new Column(som(text), false, non()));
+            }
+        }
+
+        boolean isExprEnd(Token tok)
+        {
+            return tok.kind == Kind.WORD && !tok.isWord(OPERATOR_WORDS)
+                || tok.kind == Kind.QUOTED_NAME
+                || tok.kind == Kind.STRING
+                || tok.kind == Kind.NUMBER
+                || tok.isPunct(')');
+        }
+
+        boolean isAlias(Token tok)
+        {
+            return tok.kind == Kind.WORD && !tok.isWord(NOT_COLUMN_ALIAS)
+                || tok.kind == Kind.QUOTED_NAME
+                || tok.kind == Kind.STRING;
+        }
+
+        /** `col`, `t.col`, `db.t.col` */
+        boolean isDottedName(int from, int to)
+        {
+            for (int i = from; i < to; ++i) {
+                Token tok = tokens.get(i);
+                boolean isOk = (i - from) % 2 == 0 ? tok.isName() : tok.isPunct('.');
+                if (!isOk) {
+                    return false;
+                }
+            }
+            return (to - from) % 2 == 1;
+        }
+
+        void parseSources(int from, int to, L<Source> sources)
+        {
+            int i = from;
+            while (i < to) {
+                i = parseSource(i, to, sources);
+                // skip ON/USING conditions and index hints till next table
+                i = findOnLevel(i, to, tok -> tok.isPunct(',')
+                    || tok.isWord("JOIN") || tok.isWord("STRAIGHT_JOIN")) + 1;
+            }
+        }
+
+        /** @return index after the table name and its alias */
+        int parseSource(int from, int to, L<Source> sources)
+        {
+            int i = from;
+            Opt<String> table = non();
+            Opt<SqlSelect> subquery = non();
+            if (i < to && tokens.get(i).isPunct('(')) {
+                int close = findOnLevel(i + 1, to, tok -> false);
+                subquery = som(parseSelect(i + 1, close));
+                i = close + 1;
+            } else if (i < to && tokens.get(i).isName()) {
+                table = som(tokens.get(i).text);
+                ++i;
+                while (i + 1 < to && tokens.get(i).isPunct('.') && tokens.get(i + 1).isName()) {
+                    table = som(tokens.get(i + 1).text);
+                    i += 2;
+                }
+            } else {
+                return i;
+            }
+            Opt<String> alias = non();
+            if (i + 1 < to && tokens.get(i).isWord("AS") && tokens.get(i + 1).isName()) {
+                alias = som(tokens.get(i + 1).text);
+                i += 2;
+            } else if (i < to && tokens.get(i).isName() && !tokens.get(i).isWord(NOT_TABLE_ALIAS)) {
+                alias = som(tokens.get(i).text);
+                ++i;
+            }
+            sources.add(new Source(table, alias, subquery));
+            return i;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.jetbrains.php.lang.psi.elements.impl.*;
 import org.klesun.deep_assoc_completion.DeepType;
 import org.klesun.deep_assoc_completion.helpers.ExprCtx;
 import org.klesun.deep_assoc_completion.helpers.FuncCtx;
+import org.klesun.deep_assoc_completion.helpers.FuncSummary;
 import org.klesun.deep_assoc_completion.helpers.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.lang.*;
@@ -49,7 +50,7 @@ public class ClosRes extends Lang
         return result;
     }
 
-    private static L<PhpYield> findFunctionYields(PsiElement funcBody)
+    public static L<PhpYield> findFunctionYields(PsiElement funcBody)
     {
         L<PhpYield> result = list();
         for (PsiElement child: funcBody.getChildren()) {
@@ -66,19 +67,22 @@ public class ClosRes extends Lang
 
     public static It<DeepType> getReturnedValue(PsiElement funcBody, IExprCtx ctx)
     {
+        FuncSummary summary = Tls.cast(Function.class, funcBody)
+            .uni(FuncSummary::get, () -> FuncSummary.make(funcBody));
+        // expressions that do not depend on args are resolved in a root
+        // context, so that result was reused among all calls of the function
+        F<FuncSummary.Ret, It<DeepType>> resolveRet = ret -> ret.dependsOnCtx
+            ? ctx.findExprType(ret.value)
+            : ctx.subCtxRoot().findExprType(ret.value);
+        // when none of returns depend on args, they may be resolved in parallel
+        It<DeepType> retTypes = summary.returns.any(ret -> ret.dependsOnCtx)
+            ? summary.returns.fap(ret -> resolveRet.apply(ret))
+            : ctx.subCtxRoot().findExprTypes(summary.returns.map(ret -> ret.value).arr());
         return It.cnc(
-            findFunctionReturns(funcBody)
-                .fop(ret -> opt(ret.getArgument()))
-                .fop(toCast(PhpExpression.class))
-                .fap(val -> ctx.findExprType(val)),
-            findFunctionYields(funcBody)
-                .fap(yld -> opt(yld.getArgument()).itr()
-                    .fop(toCast(PhpExpression.class))
-                    .map(val -> ctx.findExprType(val))
-                    .fap(tit -> opt(yld.getText())
-                        .fop(txt -> Tls.regex("yield\\s+from[^A-Za-z].*", txt))
-                        .uni(txt -> tit, () -> list(Mt.getInArraySt(tit, funcBody))))
-                )
+            retTypes,
+            summary.yields.fap(yld -> yld.isFrom
+                ? resolveRet.apply(yld)
+                : list(Mt.getInArraySt(resolveRet.apply(yld), funcBody)))
         );
     }
 
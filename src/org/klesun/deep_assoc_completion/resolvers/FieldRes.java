@@ -7,6 +7,7 @@ import com.jetbrains.php.lang.psi.elements.*;
 import com.jetbrains.php.lang.psi.elements.impl.*;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.*;
+import org.klesun.deep_assoc_completion.entry.FieldAssignIndex;
 import org.klesun.deep_assoc_completion.helpers.FuncCtx;
 import org.klesun.deep_assoc_completion.helpers.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
@@ -28,6 +29,10 @@ public class FieldRes extends Lang
 
     private It<FieldReferenceImpl> findReferences(PsiFile file, String name)
     {
+        Opt<It<FieldReferenceImpl>> indexed = FieldAssignIndex.findAssignedRefs(file, name);
+        if (indexed.has()) {
+            return indexed.unw();
+        }
         // ReferenceSearch seems to cause freezes
 //        SearchScope scope = GlobalSearchScope.fileScope(
 //            fieldRef.getProject(),
@@ -117,7 +122,7 @@ public class FieldRes extends Lang
                         .map(meth -> fieldRef.getClassReference())
                         .fop(toCast(PhpExpression.class))
                         .fap(ref -> ctx.findExprType(ref))
-                        .fop(t -> t.ctorArgs)
+                        .fap(t -> t.ctorArgs)
                         .flt(ctx -> opt(resolved.getContainingClass())
                             .map(cls -> isSameClass(ctx, cls)).def(true))
                         .wap(ctxs -> It.cnc(
@@ -11,6 +11,7 @@ import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.klesun.deep_assoc_completion.DeepType;
 import org.klesun.deep_assoc_completion.ScopeFinder;
+import org.klesun.deep_assoc_completion.entry.ReturnKeysIndex;
 import org.klesun.deep_assoc_completion.helpers.*;
 import org.klesun.lang.*;
 
@@ -499,7 +500,8 @@ public class FuncCallRes extends Lang
                 .fap(t -> t.getReturnTypes(funcCtx)),
             opt(funcCall.resolve())
                 .fop(Tls.toCast(FunctionImpl.class))
-                .fap(func -> new ClosRes(ctx).resolve(func).getReturnTypes(funcCtx))
+                .fap(func -> ReturnKeysIndex.resolveReturns(func, funcCtx,
+                    () -> new ClosRes(ctx).resolve(func).getReturnTypes(funcCtx)))
         );
     }
 }
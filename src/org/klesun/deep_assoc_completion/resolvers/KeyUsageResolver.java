@@ -5,6 +5,7 @@ import com.jetbrains.php.lang.psi.elements.*;
 import com.jetbrains.php.lang.psi.elements.impl.*;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.deep_assoc_completion.entry.CallSiteIndex;
 import org.klesun.deep_assoc_completion.helpers.*;
 import org.klesun.deep_assoc_completion.resolvers.var_res.DocParamRes;
 import org.klesun.lang.*;
@@ -82,7 +83,8 @@ public class KeyUsageResolver extends Lang
     {
         return L(meth.getParameters()).gat(funcVarArgOrder)
             .fop(toCast(ParameterImpl.class))
-            .fap(arg -> findVarReferences(arg))
+            .fap(arg -> CallSiteIndex.findPassedOrCalled(arg, arg.getName())
+                .uni(vars -> vars.fop(toCast(Variable.class)), () -> findVarReferences(arg)))
             .fop(var -> opt(var.getParent()))
             // TODO: include not just dirrect calls,
             // but also array_map and other built-ins
@@ -195,6 +197,11 @@ public class KeyUsageResolver extends Lang
     }
 
     public It<DeepType> findKeysUsedOnExpr(PhpExpression arrCtor)
+    {
+        return ResolverMetrics.track("KeyUsageResolver", () -> findKeysUsedOnExprUntracked(arrCtor));
+    }
+
+    private It<DeepType> findKeysUsedOnExprUntracked(PhpExpression arrCtor)
     {
         return opt(arrCtor.getParent())
             .fop(toCast(ParameterList.class))
@@ -1,8 +1,5 @@
 package org.klesun.deep_assoc_completion.resolvers;
 
-import com.intellij.database.model.DasObject;
-import com.intellij.database.model.ObjectKind;
-import com.intellij.database.psi.DbPsiFacade;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.jetbrains.php.PhpIndex;
@@ -12,10 +9,13 @@ import com.jetbrains.php.lang.psi.elements.impl.ClassReferenceImpl;
 import com.jetbrains.php.lang.psi.elements.impl.MethodReferenceImpl;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.deep_assoc_completion.entry.ReturnKeysIndex;
+import org.klesun.deep_assoc_completion.helpers.DbSchemaSnapshot;
 import org.klesun.deep_assoc_completion.helpers.FuncCtx;
 import org.klesun.deep_assoc_completion.helpers.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.IFuncCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
+import org.klesun.deep_assoc_completion.helpers.SqlSelect;
 import org.klesun.deep_assoc_completion.resolvers.var_res.DocParamRes;
 import org.klesun.lang.*;
 
@@ -26,6 +26,8 @@ import java.util.regex.Pattern;
 
 public class MethCallRes extends Lang
 {
+    final private static Pattern BIND_VAR = Pattern.compile(":([A-Za-z_][A-Za-z0-9_]*)");
+
     final private IExprCtx ctx;
 
     public MethCallRes(IExprCtx ctx)
@@ -51,53 +53,20 @@ public class MethCallRes extends Lang
             .fop(cls -> opt(cls.findMethodByName(meth.getName())));
     }
 
-    private static It<DasObject> getDasChildren(DasObject parent, ObjectKind kind)
-    {
-        // return getDasChildren(ObjectKind.COLUMN);
-        return It(parent.getDbChildren(DasObject.class, kind));
-    }
-
-    private static It<String> getTableColumns(String table, Project project)
-    {
-        return It(DbPsiFacade.getInstance(project).getDataSources())
-            .fap(src -> src.getModel().getModelRoots())
-            .fap(root -> getDasChildren(root, ObjectKind.TABLE))
-            .flt(t -> t.getName().equals(table))
-            .fap(tab -> getDasChildren(tab, ObjectKind.COLUMN))
-            .map(col -> col.getName());
-    }
-
     private DeepType parseSqlSelect(DeepType strType, Project project)
     {
         DeepType parsedType = new DeepType(strType.definition, PhpType.ARRAY);
         String sql = opt(strType.stringValue).def("");
-        int regexFlags = Pattern.DOTALL | Pattern.CASE_INSENSITIVE;
-        Opt<L<String>> matched = Opt.fst(
-            () -> Tls.regex("SELECT\\s+(\\S.*?)\\s+FROM\\s+([A-Za-z_][A-Za-z0-9_]*)?.*?", sql, regexFlags),
-            () -> Tls.regex("SELECT\\s+(\\S.*)", sql, regexFlags) // partial SQL without FROM
-        );
-        matched.fap(matches -> {
-            It<String> fields = It(matches.gat(0).def("").split(",", -1));
-            String table = matches.gat(1).def("");
-            return fields.map(str -> str.trim())
-                .fap(f -> {
-                    if (f.equals("*")) {
-                        return getTableColumns(table, project);
-                    } else {
-                        return Tls.regex("(\\S+.*?\\.)?(\\S+\\s+AS\\s+)?(\\S+)", f, regexFlags)
-                            .fop(m -> m.gat(2))
-                            .fap(a -> list(a));
-                    }
-                });
-        }).fch(name -> parsedType.addKey(name, ctx.getRealPsi(strType.definition))
-            .addType(() -> new Mt(list(new DeepType(strType.definition, PhpType.STRING))), PhpType.STRING));
+        DbSchemaSnapshot schema = DbSchemaSnapshot.inst(project);
+        SqlSelect.parse(sql).getColumnNames(table -> schema.getColumns(table))
+            .fch(name -> parsedType.addKey(name, ctx.getRealPsi(strType.definition))
+                .addType(() -> new Mt(list(new DeepType(strType.definition, PhpType.STRING))), PhpType.STRING));
         return parsedType;
     }
 
     private static It<String> getBindVars(DeepType sqlStrT)
     {
-        Matcher matcher = Pattern.compile(":([A-Za-z_][A-Za-z0-9_]*)")
-            .matcher(opt(sqlStrT.stringValue).def(""));
+        Matcher matcher = BIND_VAR.matcher(opt(sqlStrT.stringValue).def(""));
         boolean hasFirst = matcher.find();
         return It(() -> new Iterator<String>() {
             boolean hasNext = hasFirst;
@@ -167,11 +136,17 @@ public class MethCallRes extends Lang
         return types;
     }
 
+    /** @return the php expression of `@return like [...]` or `@return = Foo::bar()` doc */
+    public static Opt<String> getReturnDocExpr(PhpDocReturnTag returnDoc)
+    {
+        return Tls.regex("^\\s*(like\\s*|=|)((?:\\[|[a-zA-Z]+[\\(:]|new\\s+).*)$", returnDoc.getTagValue())
+            .fop(match -> match.gat(1));
+    }
+
     private static It<DeepType> parseReturnDoc(PhpDocReturnTag returnDoc, IExprCtx funcCtx)
     {
         IExprCtx docCtx = funcCtx.subCtxEmpty(returnDoc);
-        return Tls.regex("^\\s*(like\\s*|=|)((?:\\[|[a-zA-Z]+[\\(:]|new\\s+).*)$", returnDoc.getTagValue())
-            .fop(match -> match.gat(1))
+        return getReturnDocExpr(returnDoc)
             .fop(expr -> DocParamRes.parseExpression(expr, returnDoc.getProject(), docCtx))
             .def(It.non());
     }
@@ -187,12 +162,16 @@ public class MethCallRes extends Lang
                 funcCtx = funcCtx.subCtxEmpty();
             }
             IExprCtx finalCtx = funcCtx;
-            return impls.fap(m -> It.cnc(
+            It<Method> finalImpls = impls;
+            S<It<DeepType>> resolvePsi = () -> finalImpls.fap(m -> It.cnc(
                 opt(meth.getDocComment()).map(doc -> doc.getReturnTag())
                     .fap(tag -> parseReturnDoc(tag, finalCtx)),
                 ClosRes.getReturnedValue(m, finalCtx),
                 opt(m.getReturnType()).fap(rt -> list(new DeepType(rt, rt.getType())))
             ));
+            return meth.isAbstract()
+                ? resolvePsi.get()
+                : ReturnKeysIndex.resolveReturns(meth, finalCtx, resolvePsi);
         };
     }
 
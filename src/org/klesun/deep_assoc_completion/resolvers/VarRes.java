@@ -25,6 +25,8 @@ public class VarRes
 {
     final private IExprCtx ctx;
 
+    final private static Pattern NAME_CAPTURE = Pattern.compile("\\(\\?P<([a-zA-Z_0-9]+)>");
+
     public VarRes(IExprCtx ctx)
     {
         this.ctx = ctx;
@@ -32,8 +34,7 @@ public class VarRes
 
     private static It<String> parseRegexNameCaptures(String regexText)
     {
-        Pattern pattern = Pattern.compile("\\(\\?P<([a-zA-Z_0-9]+)>");
-        Matcher matcher = pattern.matcher(regexText);
+        Matcher matcher = NAME_CAPTURE.matcher(regexText);
         boolean hasFirst = matcher.find();
         return It(() -> new Iterator<String>() {
             boolean hasNext = hasFirst;
@@ -10,6 +10,7 @@ import com.jetbrains.php.lang.psi.elements.*;
 import com.jetbrains.php.lang.psi.elements.impl.*;
 import org.jetbrains.annotations.Nullable;
 import org.klesun.deep_assoc_completion.DeepType;
+import org.klesun.deep_assoc_completion.entry.CallSiteIndex;
 import org.klesun.deep_assoc_completion.helpers.*;
 import org.klesun.deep_assoc_completion.resolvers.ClosRes;
 import org.klesun.deep_assoc_completion.resolvers.KeyUsageResolver;
@@ -33,12 +34,19 @@ public class ArgRes extends Lang
 
     private static It<VariableImpl> findVarReferences(VariableImpl caretVar)
     {
-        return Tls.findParent(caretVar, GroupStatementImpl.class, a -> true)
-            .fap(funcBody -> Tls.findChildren(
-                funcBody, VariableImpl.class,
-                subPsi -> !(subPsi instanceof FunctionImpl)
-            ))
-            .flt(varUsage -> caretVar.getName().equals(varUsage.getName()));
+        Opt<GroupStatementImpl> scope = Tls.findParent(caretVar, GroupStatementImpl.class, a -> true);
+        // index is queried only when references are actually iterated
+        S<It<VariableImpl>> getRefs = () -> opt(caretVar.getName())
+            .fop(name -> CallSiteIndex.findPassedOrCalled(caretVar, name))
+            .uni(
+                vars -> vars.flt(v -> scope.any(body -> PsiTreeUtil.isAncestor(body, v, true))),
+                () -> scope
+                    .fap(funcBody -> Tls.findChildren(
+                        funcBody, VariableImpl.class,
+                        subPsi -> !(subPsi instanceof FunctionImpl)
+                    ))
+                    .flt(varUsage -> caretVar.getName().equals(varUsage.getName())));
+        return It(() -> getRefs.get().iterator());
     }
 
     private It<DeepType> getArgFromNsFuncCall(FunctionReferenceImpl call, int argOrderOfLambda, int argOrderInLambda)
@@ -157,8 +165,11 @@ public class ArgRes extends Lang
             .flt(a -> func.getParameters().length > 0)
             .fap(meth -> {
                 PsiFile file = func.getContainingFile();
+                Opt<L<PhpExpression>> indexed = CallSiteIndex.findSelfCalls(meth).map(calls -> calls.arr());
                 return It.cnc(
-                    It(PsiTreeUtil.findChildrenOfType(file, MethodReferenceImpl.class))
+                    indexed.uni(
+                        calls -> calls.fop(toCast(MethodReferenceImpl.class)),
+                        () -> It(PsiTreeUtil.findChildrenOfType(file, MethodReferenceImpl.class)))
                         .flt(call -> meth.getName().equals(call.getName()))
                         .flt(call -> opt(call.getClassReference()).map(ref -> ref.getText())
                             .flt(txt -> txt.equals("$this") || txt.equals("self") || txt.equals("static"))
@@ -166,7 +177,9 @@ public class ArgRes extends Lang
                         .fop(call -> L(call.getParameters()).gat(argOrderInLambda))
                         .fop(toCast(PhpExpression.class))
                         .fap(arg -> trace.subCtxEmpty().findExprType(arg)),
-                    It(PsiTreeUtil.findChildrenOfType(file, ArrayCreationExpressionImpl.class))
+                    indexed.uni(
+                        calls -> calls.fop(toCast(ArrayCreationExpressionImpl.class)),
+                        () -> It(PsiTreeUtil.findChildrenOfType(file, ArrayCreationExpressionImpl.class)))
                         .flt(arr -> arr.getChildren().length == 2
                                 && L(arr.getChildren()).gat(0)
                                     .flt(psi -> psi.getText().equals("$this")
@@ -228,6 +241,11 @@ public class ArgRes extends Lang
     }
 
     public It<DeepType> resolveArg(ParameterImpl param)
+    {
+        return ResolverMetrics.track("ArgRes", () -> resolveArgUntracked(param));
+    }
+
+    private It<DeepType> resolveArgUntracked(ParameterImpl param)
     {
         int order = getArgOrder(param).def(-1);
 
@@ -77,7 +77,7 @@ public class AssRes extends Lang
             .map(value -> T2(keys, () -> ctx.findExprType(value)));
     }
 
-    private static Opt<AssignmentExpressionImpl> findParentAssignment(PsiElement caretVar) {
+    public static Opt<AssignmentExpressionImpl> findParentAssignment(PsiElement caretVar) {
         return opt(caretVar.getParent())
             .fop(parent -> Opt.fst(
                 () -> Tls.cast(ArrayAccessExpression.class, parent)
@@ -4,6 +4,8 @@ import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.jetbrains.php.lang.PhpLanguage;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.tags.PhpDocParamTag;
@@ -17,8 +19,12 @@ import org.klesun.deep_assoc_completion.helpers.ExprCtx;
 import org.klesun.deep_assoc_completion.helpers.FuncCtx;
 import org.klesun.deep_assoc_completion.helpers.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
+import org.klesun.deep_assoc_completion.helpers.ResolverMetrics;
 import org.klesun.lang.*;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class DocParamRes extends Lang
 {
     private IExprCtx ctx;
@@ -113,7 +119,7 @@ public class DocParamRes extends Lang
         }
     }
 
-    public static Opt<It<DeepType>> parseExpression(String expr, Project project, IExprCtx docCtx)
+    private static Opt<PhpExpression> parseExpressionPsi(String expr, Project project)
     {
         // adding "$arg = " so anonymous functions were parsed as expressions
         expr = "<?php\n$arg = " + expr + ";";
@@ -123,7 +129,33 @@ public class DocParamRes extends Lang
             .map(gr -> gr.getFirstPsiChild())
             .fop(toCast(Statement.class))
             .map(st -> st.getFirstChild())
-            .fop(toCast(PhpExpression.class))
+            .fop(toCast(PhpExpression.class));
+    }
+
+    /**
+     * doc text -> parsed expression of a doc tag, kept till the file with the doc
+     * changes, so that doc was not re-parsed on each resolution. Since parsed PSI
+     * is same on each call, resolved types are also taken from the search cache
+     *
+     * cached per doc tag, not per file, since same text in two classes means two
+     * different things when it refers to self:: - project cache is not used for
+     * such PSI at all, see FuncCtx.getContextFreeHash()
+     */
+    private static Map<String, Opt<PhpExpression>> getParsedDocs(PsiElement doc, PsiFile docFile)
+    {
+        return CachedValuesManager.getCachedValue(doc, () -> CachedValueProvider.Result.create(
+            new ConcurrentHashMap<String, Opt<PhpExpression>>(), docFile));
+    }
+
+    public static Opt<It<DeepType>> parseExpression(String expr, Project project, IExprCtx docCtx)
+    {
+        return docCtx.getFakeFileSource()
+            .fop(doc -> opt(doc.getContainingFile())
+                .map(file -> getParsedDocs(doc, file)))
+            .uni(
+                parsed -> parsed.computeIfAbsent(expr, text -> parseExpressionPsi(text, project)),
+                () -> parseExpressionPsi(expr, project)
+            )
             .map(ex -> docCtx.findExprType(ex));
     }
 
@@ -148,6 +180,6 @@ public class DocParamRes extends Lang
 
     public It<DeepType> resolve(PhpDocTag doc)
     {
-        return parseDoc(doc, doc.getProject()).fap(a -> a);
+        return ResolverMetrics.track("DocParamRes", () -> parseDoc(doc, doc.getProject()).fap(a -> a));
     }
 }
@@ -0,0 +1,61 @@
+package org.klesun.lang;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * bounded cache for values read from many threads at once: lookups do
+ * not lock, each entry just remembers when it was last used, and once
+ * there are too many entries, the least recently used quarter is evicted
+ * under lock - so it is LRU only approximately
+ */
+public class LruCache<K, V>
+{
+    final private int maxSize;
+    final private Map<K, Entry<V>> keyToEntry = new ConcurrentHashMap<>();
+
+    public LruCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /** value may be computed twice when two threads miss same key at once */
+    public V get(K key, Lang.F<K, V> compute)
+    {
+        Entry<V> entry = keyToEntry.get(key);
+        if (entry == null) {
+            entry = new Entry<>(compute.apply(key));
+            Entry<V> had = keyToEntry.putIfAbsent(key, entry);
+            if (had != null) {
+                entry = had;
+            } else if (keyToEntry.size() > maxSize) {
+                evict();
+            }
+        }
+        entry.lastUsed = System.nanoTime();
+        return entry.value;
+    }
+
+    private synchronized void evict()
+    {
+        int toRemove = keyToEntry.size() - maxSize * 3 / 4;
+        if (toRemove <= 0) {
+            return;
+        }
+        Lang.L(keyToEntry.entrySet())
+            .srt(e -> e.getValue().lastUsed).arr()
+            .sub(0, toRemove)
+            .fch(e -> keyToEntry.remove(e.getKey(), e.getValue()));
+    }
+
+    private static class Entry<V>
+    {
+        final V value;
+        volatile long lastUsed = System.nanoTime();
+
+        Entry(V value)
+        {
+            this.value = value;
+        }
+    }
+}
@@ -1,72 +1,176 @@
 package org.klesun.lang;
 
-import java.util.ArrayList;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import static org.klesun.lang.Lang.*;
 
 /**
  * a wrapper for an iterator, that remembers all retrieved elements
  * and reuses them on the next attempt to iterate over it
+ *
+ * at most one thread at a time holds the producer lease and pulls the source,
+ * others wait for it to append the next node. Nodes are appended with CAS, so
+ * consumers read the retrieved elements without locking. This only makes the
+ * iterable itself safe - the source has to be safe to pull from any thread too
  */
 public class MemoizingIterable<A> implements Iterable<A>
 {
+    // thread -> iterable it is waiting for, to detect circular references between threads
+    final private static Map<Thread, MemoizingIterable<?>> threadToAwaited = new ConcurrentHashMap<>();
+
     final private Node head = new Node(null); // first value will be skipped
     final private Iterator<A> source;
-    private boolean isNexting = false;
+    final private AtomicReference<Thread> producer = new AtomicReference<>(null);
+    final private Object lock = new Object();
+    private volatile Node tail = head;
+    private volatile boolean exhausted = false;
 
     public MemoizingIterable(Iterator<A> source)
     {
         this.source = source;
     }
 
+    /** whether waiting for this iterable would eventually wait for current thread */
+    private boolean wouldDeadlock()
+    {
+        Thread self = Thread.currentThread();
+        MemoizingIterable<?> awaited = this;
+        // guard against cycles not involving current thread
+        for (int i = 0; awaited != null && i < 1000; ++i) {
+            Thread holder = awaited.producer.get();
+            if (holder == null) {
+                return false;
+            } else if (holder == self) {
+                return true;
+            }
+            awaited = threadToAwaited.get(holder);
+        }
+        return false;
+    }
+
+    /** @return false if source is over or this thread is already producing */
+    private boolean produce()
+    {
+        Thread self = Thread.currentThread();
+        Node last = tail;
+        if (!producer.compareAndSet(null, self)) {
+            return false;
+        }
+        try {
+            if (last != tail || exhausted) {
+                // other thread appended something while we were getting the lease
+                return true;
+            }
+            // source pull is where actual resolution happens
+            ProgressManager.checkCanceled();
+            if (source.hasNext()) {
+                Node node = new Node(source.next());
+                last.next.compareAndSet(null, node);
+                tail = node;
+            } else {
+                exhausted = true;
+            }
+            return true;
+        } finally {
+            producer.set(null);
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void awaitProducer(Node current)
+    {
+        threadToAwaited.put(Thread.currentThread(), this);
+        try {
+            synchronized (lock) {
+                while (producer.get() != null && current.next.get() == null && !exhausted) {
+                    ProgressManager.checkCanceled();
+                    lock.wait(10);
+                }
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException();
+        } finally {
+            threadToAwaited.remove(Thread.currentThread());
+        }
+    }
+
+    /** @return false if there are no more elements _for current thread_ */
+    private boolean advance(Node current)
+    {
+        if (producer.get() == Thread.currentThread()) {
+            // expression resolved through itself results in such recursion in the
+            // iterator. I guess it's safe to answer "empty" on circular reference
+            return false;
+        }
+        while (current.next.get() == null && !exhausted) {
+            Thread holder = producer.get();
+            if (holder == null) {
+                produce();
+            } else if (wouldDeadlock()) {
+                // same circular reference, but through other thread
+                return false;
+            } else {
+                awaitProducer(current);
+            }
+        }
+        return current.next.get() != null;
+    }
+
     public Iterator<A> iterator()
     {
         return new Iterator<A>() {
             Node current = head;
             public boolean hasNext() {
-                if (isNexting) {
-                    // expression resolved through itself results in such recursion in the
-                    // iterator. I guess it's safe to answer "empty" on circular reference
-                    return false;
-                }
-                isNexting = true;
-                boolean has;
-                try {
-                    has = current.next != null
-                        || source.hasNext();
-                } catch (StackOverflowError exc) {
-                    throw exc;
-                }
-                isNexting = false;
-                return has;
+                return advance(current);
             }
             public A next() {
-                if (isNexting) {
-                    throw new NoSuchElementException("shalava");
-                }
-                isNexting = true;
-                if (current.next != null) {
-                    // look further
-                } else if (source.hasNext()) {
-                    A value = source.next();
-                    current.next = new Node(value);
-                } else {
+                if (!advance(current)) {
                     throw new NoSuchElementException("loh");
                 }
-                current = current.next;
-                isNexting = false;
+                current = current.next.get();
                 return current.value;
             }
         };
     }
 
+    /** elements retrieved so far - does not pull the source */
+    public It<A> memoized()
+    {
+        return It(() -> new Iterator<A>() {
+            Node current = head;
+            public boolean hasNext() {
+                return current.next.get() != null;
+            }
+            public A next() {
+                current = current.next.get();
+                if (current == null) {
+                    throw new NoSuchElementException("loh");
+                }
+                return current.value;
+            }
+        });
+    }
+
+    /** whether some thread is pulling the source right now */
+    public boolean isProducing()
+    {
+        return producer.get() != null;
+    }
+
     private class Node
     {
         final A value;
-        Node next = null;
+        final AtomicReference<Node> next = new AtomicReference<>(null);
 
         public Node(A value)
         {
@@ -21,6 +21,10 @@ import java.util.stream.IntStream;
  */
 public class Tls extends Lang
 {
+    // most patterns are constants, the limit is for ones built from user input,
+    // least recently used are evicted so that constants stayed cached forever
+    final private static LruCache<String, Pattern> textToPattern = new LruCache<>(1024);
+
     /**
      * unlike built-in SomeClass.class.cast(),
      * this returns empty optional instead of
@@ -80,6 +84,13 @@ public class Tls extends Lang
         }
     }
 
+    private static Pattern compile(String patternText, int flags)
+    {
+        String key = flags + "/" + patternText;
+        // called from worker threads of ParallelRes too, so lookups do not lock
+        return textToPattern.get(key, k -> Pattern.compile(patternText, flags));
+    }
+
     /**
      * be careful, java's regex implementation matches WHOLE string, in other
      * words, it implicitly adds "^" and "$" at beginning and end of your regex
@@ -87,7 +98,7 @@ public class Tls extends Lang
     public static Opt<L<String>> regex(String patternText, String subjectText, int flags)
     {
         List<String> result = list();
-        Pattern pattern = Pattern.compile(patternText, flags);
+        Pattern pattern = compile(patternText, flags);
         Matcher matcher = pattern.matcher(subjectText);
         if (matcher.matches()) {
             for (int i = 1; i < matcher.groupCount() + 1; ++i) {
@@ -177,9 +188,19 @@ public class Tls extends Lang
         return Tls.substr(Tls.implode(" ", lines), 0, length);
     }
 
+    /** same as matching "^\\d+$", but without regex, since it is called on every key */
     public static boolean isNum(String str)
     {
-        return regex("^\\d+$", str).has();
+        if (str.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); ++i) {
+            char ch = str.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
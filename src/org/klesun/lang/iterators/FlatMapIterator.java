@@ -1,5 +1,6 @@
 package org.klesun.lang.iterators;
 
+import com.intellij.openapi.progress.ProgressManager;
 import org.klesun.lang.*;
 
 import java.util.Iterator;
@@ -35,6 +36,8 @@ public class FlatMapIterator<A, B> implements Iterator<B> {
             return som(() -> current.next());
         } else {
             while (iterators.hasNext()) {
+                // this loop may skip thousands of empty iterables without ever returning
+                ProgressManager.checkCanceled();
                 //System.out.println("zhopa hasNext " + i);
                 current = iterators.next();
                 if (current.hasNext()) {
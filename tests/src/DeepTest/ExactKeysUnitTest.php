@@ -864,6 +864,98 @@ class ExactKeysUnitTest
         return $list;
     }
 
+    public function providePdoSqlCommasInCallsAndSubqueries($params)
+    {
+        $list = [];
+        $connection = new \PDO();
+        $sql = implode(PHP_EOL, [
+            'SELECT',
+            "    CONCAT(name, ', ', price) AS label,",
+            '    (SELECT COUNT(*) FROM terminal_sessions ts WHERE ts.id IN (1, 2)) AS sessions,',
+            '    IF(price > 0, 1, 0) AS is_paid,',
+            '    id',
+            'FROM delete_me;',
+        ]);
+        $stmt = $connection->prepare($sql);
+        $stmt->execute($params);
+        $result = $stmt->fetch(\PDO::FETCH_ASSOC);
+        $result[''];
+        $list[] = [$result, ['label', 'sessions', 'is_paid', 'id']];
+        return $list;
+    }
+
+    public function providePdoSqlImplicitAliases($params)
+    {
+        $list = [];
+        $connection = new \PDO();
+        $sql = 'SELECT id ident, COUNT(*) cnt, max(dt) `max_dt`, tcl.cmd_performed cmd FROM terminal_command_log tcl;';
+        $stmt = $connection->prepare($sql);
+        $stmt->execute($params);
+        $result = $stmt->fetch(\PDO::FETCH_ASSOC);
+        $result[''];
+        $list[] = [$result, ['ident', 'cnt', 'max_dt', 'cmd']];
+        return $list;
+    }
+
+    public function providePdoSqlTableStarJoin($params)
+    {
+        $list = [];
+        $connection = new \PDO();
+        // don't forget to run upgrade_sql.sql and setup your DB in _Database_ window
+        $sql = 'SELECT dm.*, ts.agent_id FROM delete_me dm JOIN terminal_sessions ts ON ts.id = dm.id;';
+        $stmt = $connection->prepare($sql);
+        $stmt->execute($params);
+        $result = $stmt->fetch(\PDO::FETCH_ASSOC);
+        $result[''];
+        $list[] = [$result, ['id', 'name', 'price', 'agent_id']];
+        return $list;
+    }
+
+    public function providePdoSqlTableStarDerived($params)
+    {
+        $list = [];
+        $connection = new \PDO();
+        $sql = 'SELECT d.*, 1 AS one FROM (SELECT id, name AS title FROM delete_me) AS d;';
+        $stmt = $connection->prepare($sql);
+        $stmt->execute($params);
+        $result = $stmt->fetch(\PDO::FETCH_ASSOC);
+        $result[''];
+        $list[] = [$result, ['id', 'title', 'one']];
+        return $list;
+    }
+
+    public function providePdoSqlFromInCommentAndString($params)
+    {
+        $list = [];
+        $connection = new \PDO();
+        $sql = implode(PHP_EOL, [
+            'SELECT id, /* FROM nowhere */',
+            "    'taken FROM here' AS note, -- FROM a comment",
+            '    # FROM another comment',
+            '    name',
+            'FROM delete_me;',
+        ]);
+        $stmt = $connection->prepare($sql);
+        $stmt->execute($params);
+        $result = $stmt->fetch(\PDO::FETCH_ASSOC);
+        $result[''];
+        $list[] = [$result, ['id', 'note', 'name']];
+        return $list;
+    }
+
+    public function providePdoSqlEscapedQuoteAlias($params)
+    {
+        $list = [];
+        $connection = new \PDO();
+        $sql = "SELECT id, name AS 'it\'s', price AS 'say ''hi''' FROM delete_me;";
+        $stmt = $connection->prepare($sql);
+        $stmt->execute($params);
+        $result = $stmt->fetch(\PDO::FETCH_ASSOC);
+        $result[''];
+        $list[] = [$result, ['id', "it's", "say 'hi'"]];
+        return $list;
+    }
+
     public function provideSelectAll($params)
     {
         $list = [];
@@ -1168,6 +1260,52 @@ class ExactKeysUnitTest
         ];
     }
 
+    private static function getIndexedDbConfig()
+    {
+        return [
+            'host' => 'localhost',
+            'port' => 3306,
+            'options' => ['timeout' => 5],
+        ];
+    }
+
+    private static function getIndexedConfig()
+    {
+        if (rand() % 2) {
+            return ['env' => 'prod', 'debug' => false];
+        } else {
+            return self::getIndexedDbConfig();
+        }
+    }
+
+    /** key names and literal values are taken from ReturnKeysIndex */
+    public function provideReturnKeysIndex()
+    {
+        $config = self::getIndexedConfig();
+        return [
+            [$config, ['env', 'debug', 'host', 'port', 'options']],
+            [$config['options'], ['timeout']],
+            [['dbKeys' => self::getIndexedDbConfig()]['dbKeys'], ['host', 'port', 'options']],
+        ];
+    }
+
+    private static function wrapValue($v)
+    {
+        return ['val' => $v];
+    }
+
+    /** same array literal resolved with different args must not be deduplicated */
+    public function provideSameLiteralDifferentArgs()
+    {
+        $wrapped = rand() % 2
+            ? self::wrapValue(['a' => 1])
+            : self::wrapValue(['b' => 2]);
+        return [
+            [$wrapped, ['val']],
+            [$wrapped['val'], ['a', 'b']],
+        ];
+    }
+
     //=============================
     // following are not implemented yet
     //=============================